@@ -5,9 +5,10 @@ import com.serotonin.bacnet4j.RemoteDevice;
 import com.serotonin.bacnet4j.event.DeviceEventAdapter;
 import com.serotonin.bacnet4j.npdu.ip.IpNetwork;
 import com.serotonin.bacnet4j.npdu.ip.IpNetworkBuilder;
-import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVRequest;
+import com.serotonin.bacnet4j.npdu.ip.IpNetworkUtils;
 import com.serotonin.bacnet4j.service.unconfirmed.WhoIsRequest;
 import com.serotonin.bacnet4j.transport.DefaultTransport;
+import com.serotonin.bacnet4j.type.Encodable;
 import com.serotonin.bacnet4j.type.constructed.*;
 import com.serotonin.bacnet4j.type.enumerated.*;
 import com.serotonin.bacnet4j.type.notificationParameters.NotificationParameters;
@@ -16,13 +17,38 @@ import com.serotonin.bacnet4j.type.primitive.CharacterString;
 import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
 import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
 import com.serotonin.bacnet4j.util.DiscoveryUtils;
+import com.serotonin.bacnet4j.util.PropertyReferences;
+import com.serotonin.bacnet4j.util.PropertyValues;
 import com.serotonin.bacnet4j.util.RemoteDeviceDiscoverer;
 import com.serotonin.bacnet4j.util.RemoteDeviceFinder;
+import com.serotonin.bacnet4j.util.RequestUtils;
+import no.messom.realestate.bacnet.aggregate.AggregateGroupLoader;
+import no.messom.realestate.bacnet.aggregate.AggregationEngine;
+import no.messom.realestate.bacnet.alert.AlertEngine;
+import no.messom.realestate.bacnet.alert.AlertRuleLoader;
+import no.messom.realestate.bacnet.cov.CovMode;
+import no.messom.realestate.bacnet.cov.CovSubscriptionManager;
+import no.messom.realestate.bacnet.shard.LeaseDirectory;
+import no.messom.realestate.bacnet.shard.ShardCoordinator;
+import no.messom.realestate.bacnet.shard.ShardListener;
+import no.messom.realestate.bacnet.trend.FileTimeSeriesStore;
+import no.messom.realestate.bacnet.trend.TrendLogBackfiller;
+import no.messom.realestate.bacnet.trend.TrendLogCursors;
+import no.messom.realestate.bacnet.write.BacnetWriter;
+import no.messom.realestate.bacnet.write.WriteMetrics;
 import org.slf4j.Logger;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static org.slf4j.LoggerFactory.getLogger;
@@ -30,12 +56,34 @@ import static org.slf4j.LoggerFactory.getLogger;
 public class BacnetCOVSubscriber {
     private static final Logger log = getLogger(BacnetCOVSubscriber.class);
 
-    private static final int LOCAL_DEVICE_ID = 1235;
+    private static final int LOCAL_DEVICE_ID = Integer.getInteger("bacnet.localDeviceId", 1235);
     private static final int REMOTE_DEVICE_ID = 2640;
     private static final String REMOTE_IP = "192.168.2.233";
     public static final String LOCAL_IP = "0.0.0.0";
-    private static final int BACNET_PORT = 47808;
+    private static final int STANDARD_BACNET_PORT = 47808;
+    private static final int BACNET_PORT = Integer.getInteger("bacnet.port", STANDARD_BACNET_PORT);
     private static final int COV_LIFETIME = 3600; // seconds
+    private static final int COV_SILENCE = Integer.getInteger("bacnet.cov.silence", 900); // seconds
+    private static final int COV_CHECK_INTERVAL = 30; // seconds
+    private static final int STUCK_CHECK_INTERVAL = 60; // seconds
+    private static final int AGGREGATE_WINDOW = 900; // seconds
+    private static final int AGGREGATE_BUCKETS = 15;
+    private static final int AGGREGATE_LOG_INTERVAL = 300; // seconds
+    private static final int WRITE_LOG_INTERVAL = 300; // seconds
+    private static final String TREND_DIR = System.getProperty("bacnet.trend.dir", "trend-data");
+    // Sharded modus er aktiv når katalogen for lease-filer er satt
+    private static final String SHARD_DIR = System.getProperty("bacnet.shard.dir");
+    private static final String SHARD_MEMBER =
+            System.getProperty("bacnet.shard.member", "member-" + ProcessHandle.current().pid());
+    private static final String SHARD_DEVICES =
+            System.getProperty("bacnet.shard.devices", Integer.toString(REMOTE_DEVICE_ID));
+    // Adresser for devicer som ikke kan finnes med Who-Is, på formen 2640=192.168.2.233[:port],2641=...
+    private static final String SHARD_ADDRESSES =
+            System.getProperty("bacnet.shard.addresses", REMOTE_DEVICE_ID + "=" + REMOTE_IP);
+    // Inntil devicet er lest antar vi minste APDU for BACnet/IP og ingen segmentering
+    private static final int INITIAL_MAX_APDU = 480;
+    private static final long SHARD_LEASE = 15000; // milliseconds
+    private static final long SHARD_STAGGER = 2000; // milliseconds
     private static final ObjectIdentifier TARGET_OBJECT =
             new ObjectIdentifier(ObjectType.analogValue, 40250);
 
@@ -44,6 +92,18 @@ public class BacnetCOVSubscriber {
     private final CountDownLatch shutdownLatch = new CountDownLatch(1);
     private BacnetObjectRepository repository;
     private BacnetObjectDiscoverer discoverer;
+    private AlertEngine alertEngine;
+    private AggregationEngine aggregationEngine;
+    private CovSubscriptionManager covSubscriptions;
+    private volatile TrendLogBackfiller trendLogBackfiller;
+    private volatile FileTimeSeriesStore trendStore;
+    private ShardCoordinator shardCoordinator;
+    private BacnetWriter writer;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bacnet-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public static void main(String[] args) throws Exception {
         BacnetCOVSubscriber app = new BacnetCOVSubscriber();
@@ -61,9 +121,15 @@ public class BacnetCOVSubscriber {
             initializeLocalDevice();
             setupRepository();
             setupEventHandling();
-            discoverRemoteDevice();
-            discoverAllObjects();
-            setupCOVSubscription();
+            startBackgroundTasks();
+            if (SHARD_DIR != null) {
+                startSharding();
+            } else {
+                discoverRemoteDevice();
+                discoverAllObjects();
+                setupCOVSubscription();
+                startTrendLogBackfill(remoteDevice);
+            }
 
             log.info("BACnet COV Subscriber is running. Press Ctrl+C to stop.");
             shutdownLatch.await();
@@ -75,9 +141,18 @@ public class BacnetCOVSubscriber {
         }
     }
 
-    private void setupRepository() {
+    private void setupRepository() throws Exception {
         repository = new BacnetObjectRepository();
         discoverer = new BacnetObjectDiscoverer(localDevice, repository);
+        alertEngine = new AlertEngine(repository, AlertRuleLoader.loadConfigured(),
+                alert -> log.warn("{}", alert));
+        repository.addPresentValueListener(alertEngine);
+        aggregationEngine = new AggregationEngine(repository,
+                TimeUnit.SECONDS.toMillis(AGGREGATE_WINDOW), AGGREGATE_BUCKETS);
+        AggregateGroupLoader.loadConfigured(aggregationEngine);
+        repository.addPresentValueListener(aggregationEngine);
+        covSubscriptions = new CovSubscriptionManager(localDevice, repository, COV_LIFETIME, COV_SILENCE);
+        writer = new BacnetWriter(localDevice);
         log.info("Repository and discoverer initialized");
     }
 
@@ -93,6 +168,137 @@ public class BacnetCOVSubscriber {
 
         // Vis noen eksempler på fundne objekter
         logDiscoveredObjects();
+
+        alertEngine.compile();
+        aggregationEngine.bind();
+    }
+
+    private void startBackgroundTasks() {
+        scheduler.scheduleAtFixedRate(() -> alertEngine.checkStuck(System.currentTimeMillis()),
+                STUCK_CHECK_INTERVAL, STUCK_CHECK_INTERVAL, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(covSubscriptions::checkSubscriptions,
+                COV_CHECK_INTERVAL, COV_CHECK_INTERVAL, TimeUnit.SECONDS);
+        if (!aggregationEngine.getGroups().isEmpty()) {
+            scheduler.scheduleAtFixedRate(aggregationEngine::logGroups,
+                    AGGREGATE_LOG_INTERVAL, AGGREGATE_LOG_INTERVAL, TimeUnit.SECONDS);
+        }
+        scheduler.scheduleAtFixedRate(() -> {
+            WriteMetrics metrics = writer.getMetrics();
+            if (metrics.getCompleted() + metrics.getFailed() > 0) {
+                metrics.logStatistics();
+            }
+        }, WRITE_LOG_INTERVAL, WRITE_LOG_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Skriving av settpunkter og overstyringer, for eksempel ved effektstyring
+     */
+    public BacnetWriter getWriter() {
+        return writer;
+    }
+
+    private void startSharding() throws Exception {
+        List<Integer> devices = Arrays.stream(SHARD_DEVICES.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .map(Integer::valueOf)
+                .toList();
+
+        shardCoordinator = new ShardCoordinator(new LeaseDirectory(Paths.get(SHARD_DIR), SHARD_LEASE),
+                SHARD_MEMBER, devices, new ShardListener() {
+                    @Override
+                    public void deviceAcquired(int deviceInstanceNumber) throws Exception {
+                        acquireDevice(deviceInstanceNumber);
+                    }
+
+                    @Override
+                    public void deviceReleased(int deviceInstanceNumber) {
+                        releaseDevice(deviceInstanceNumber);
+                    }
+                }, SHARD_LEASE, SHARD_STAGGER);
+        shardCoordinator.start();
+    }
+
+    /**
+     * Finner devicet, leser objektene og abonnerer på alle objekter som støtter COV
+     */
+    private void acquireDevice(int deviceInstanceNumber) throws Exception {
+        RemoteDevice device = resolveDevice(deviceInstanceNumber);
+        DiscoveryUtils.getExtendedDeviceInformation(localDevice, device);
+        discoverer.discoverAllObjects(device)
+                .get(30, TimeUnit.SECONDS);
+        alertEngine.compile();
+        aggregationEngine.bind();
+
+        List<BacnetObject> covObjects = repository.findCovSupportedObjects().stream()
+                .filter(obj -> obj.getDeviceInstanceNumber() == deviceInstanceNumber)
+                .toList();
+        for (BacnetObject obj : covObjects) {
+            covSubscriptions.subscribe(device, obj.getObjectIdentifier());
+        }
+        log.info("Subscribed to {} objects on device {}", covObjects.size(), deviceInstanceNumber);
+        startTrendLogBackfill(device);
+    }
+
+    /**
+     * Bruker konfigurert adresse når den finnes. I-Am sendes som broadcast til standardporten, så en prosess
+     * på en annen port får aldri svar på Who-Is og må ha adressen til devicet.
+     */
+    private RemoteDevice resolveDevice(int deviceInstanceNumber) throws Exception {
+        String address = shardAddresses().get(deviceInstanceNumber);
+        if (address == null) {
+            if (BACNET_PORT != STANDARD_BACNET_PORT) {
+                log.warn("No address configured for device {} and port {} does not receive I-Am broadcasts, " +
+                        "set bacnet.shard.addresses", deviceInstanceNumber, BACNET_PORT);
+            }
+            return localDevice.getRemoteDevice(deviceInstanceNumber).get(5000);
+        }
+
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? address : address.substring(0, colon);
+        int port = colon < 0 ? STANDARD_BACNET_PORT : Integer.parseInt(address.substring(colon + 1));
+        RemoteDevice device = new RemoteDevice(localDevice, deviceInstanceNumber, IpNetworkUtils.toAddress(host, port));
+        device.setDeviceProperty(PropertyIdentifier.maxApduLengthAccepted, new UnsignedInteger(INITIAL_MAX_APDU));
+        device.setDeviceProperty(PropertyIdentifier.segmentationSupported, Segmentation.noSegmentation);
+
+        // Leser det I-Am ellers ville gitt oss direkte fra device-objektet
+        ObjectIdentifier deviceId = new ObjectIdentifier(ObjectType.device, deviceInstanceNumber);
+        PropertyReferences references = new PropertyReferences();
+        references.add(deviceId, PropertyIdentifier.maxApduLengthAccepted);
+        references.add(deviceId, PropertyIdentifier.segmentationSupported);
+        PropertyValues values = RequestUtils.readProperties(localDevice, device, references, false, null);
+        for (PropertyIdentifier pid : List.of(PropertyIdentifier.maxApduLengthAccepted,
+                PropertyIdentifier.segmentationSupported)) {
+            Encodable value = values.getNoErrorCheck(deviceId, pid);
+            if (value != null && !(value instanceof ErrorClassAndCode)) {
+                device.setDeviceProperty(pid, value);
+            }
+        }
+        log.info("Resolved device {} at configured address {}:{}", deviceInstanceNumber, host, port);
+        return device;
+    }
+
+    private static Map<Integer, String> shardAddresses() {
+        Map<Integer, String> addresses = new HashMap<>();
+        for (String entry : SHARD_ADDRESSES.split(",")) {
+            int equals = entry.indexOf('=');
+            if (equals > 0) {
+                addresses.put(Integer.valueOf(entry.substring(0, equals).trim()), entry.substring(equals + 1).trim());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Slutter å overvåke devicet og fjerner objektene, så STUCK-regler og gruppesnitt
+     * ikke bygger på verdier som ikke lenger oppdateres
+     */
+    private void releaseDevice(int deviceInstanceNumber) {
+        log.info("Unsubscribing from COV on device {}", deviceInstanceNumber);
+        covSubscriptions.unsubscribeDevice(deviceInstanceNumber);
+        alertEngine.removeDevice(deviceInstanceNumber);
+        aggregationEngine.removeDevice(deviceInstanceNumber);
+        repository.removeDevice(deviceInstanceNumber);
     }
 
     private void logDiscoveredObjects() {
@@ -115,13 +321,14 @@ public class BacnetCOVSubscriber {
     private void initializeLocalDevice() throws Exception {
         IpNetwork ipNetwork = new IpNetworkBuilder()
                 .withLocalBindAddress(LOCAL_IP)
+                .withPort(BACNET_PORT)
                 .withLocalNetworkNumber(LOCAL_DEVICE_ID)
                 .withBroadcast("192.168.2.255", 24)
                 .build();
 
         localDevice = new LocalDevice(LOCAL_DEVICE_ID, new DefaultTransport(ipNetwork));
         localDevice.initialize();
-        log.info("Local BACnet device initialized with ID: {}", LOCAL_DEVICE_ID);
+        log.info("Local BACnet device initialized with ID: {} on port {}", LOCAL_DEVICE_ID, BACNET_PORT);
     }
 
     private void setupEventHandling() {
@@ -159,8 +366,10 @@ public class BacnetCOVSubscriber {
                     log.info("No property values in notification");
                 }
 
+                covSubscriptions.notificationReceived(initiatingDevice, monitoredObjectIdentifier, timeRemaining);
+
                 // Her kan du legge til egen forretningslogikk for å behandle COV-dataene
-                processCOVData(monitoredObjectIdentifier, listOfValues);
+                processCOVData(initiatingDevice.getInstanceNumber(), monitoredObjectIdentifier, listOfValues);
 
                 log.info("=== End COV Notification ===");
             }
@@ -175,6 +384,10 @@ public class BacnetCOVSubscriber {
             @Override
             public void eventNotificationReceived(UnsignedInteger processIdentifier, ObjectIdentifier initiatingDeviceIdentifier, ObjectIdentifier eventObjectIdentifier, TimeStamp timeStamp, UnsignedInteger notificationClass, UnsignedInteger priority, EventType eventType, CharacterString messageText, NotifyType notifyType, Boolean ackRequired, EventState fromState, EventState toState, NotificationParameters eventValues) {
                 super.eventNotificationReceived(processIdentifier, initiatingDeviceIdentifier, eventObjectIdentifier, timeStamp, notificationClass, priority, eventType, messageText, notifyType, ackRequired, fromState, toState, eventValues);
+                log.info("Event notification from device {}: {} {} -> {}",
+                        initiatingDeviceIdentifier.getInstanceNumber(), eventObjectIdentifier, fromState, toState);
+                alertEngine.eventNotificationReceived(initiatingDeviceIdentifier.getInstanceNumber(),
+                        eventObjectIdentifier, eventType, fromState, toState, messageText);
             }
 
             @Override
@@ -190,7 +403,8 @@ public class BacnetCOVSubscriber {
         log.info("Event handler configured for COV notifications");
     }
 
-    private void processCOVData(ObjectIdentifier objectId, SequenceOf<PropertyValue> listOfValues) {
+    private void processCOVData(int deviceInstanceNumber, ObjectIdentifier objectId,
+                                SequenceOf<PropertyValue> listOfValues) {
         // Her implementerer du din egen logikk for å behandle COV-dataene
         // For eksempel:
         // - Lagre data til database
@@ -204,8 +418,8 @@ public class BacnetCOVSubscriber {
             for (PropertyValue pv : listOfValues) {
                 if (PropertyIdentifier.presentValue.equals(pv.getPropertyIdentifier())) {
                     log.info("Present Value changed to: {}", pv.getValue());
-                    // Eksempel: Send alert hvis verdi er over en terskel
-                    // checkThresholdAlert(pv.getValue());
+                    // Oppdaterer repository, som også evaluerer alarmreglene
+                    repository.updatePresentValue(deviceInstanceNumber, objectId, pv.getValue());
                 }
             }
         }
@@ -264,15 +478,8 @@ public class BacnetCOVSubscriber {
 
             // Subscribe to COV
             log.info("Setting up COV subscription for object: {}", TARGET_OBJECT);
-            SubscribeCOVRequest covRequest = new SubscribeCOVRequest(
-                    new UnsignedInteger(1), // subscriber process identifier
-                    TARGET_OBJECT,
-                    Boolean.TRUE, // confirmed notifications
-                    new UnsignedInteger(COV_LIFETIME)
-            );
-
-            localDevice.send(remoteDevice, covRequest);
-            log.info("COV subscription request sent successfully");
+            CovMode mode = covSubscriptions.subscribe(remoteDevice, TARGET_OBJECT);
+            log.info("COV subscription request sent successfully ({} notifications)", mode);
             log.info("Waiting for COV notifications...");
 
         } catch (Exception e) {
@@ -281,22 +488,65 @@ public class BacnetCOVSubscriber {
         }
     }
 
+    private void startTrendLogBackfill(RemoteDevice device) throws Exception {
+        List<ObjectIdentifier> trendLogs = repository.findByType(ObjectType.trendLog).stream()
+                .filter(o -> o.getDeviceInstanceNumber() == device.getInstanceNumber())
+                .map(BacnetObject::getObjectIdentifier)
+                .toList();
+        if (trendLogs.isEmpty()) {
+            log.info("No trend logs found on device {}, skipping backfill", device.getInstanceNumber());
+            return;
+        }
+
+        log.info("Starting backfill of {} trend logs on device {} into {}",
+                trendLogs.size(), device.getInstanceNumber(), Paths.get(TREND_DIR).toAbsolutePath());
+        trendLogBackfiller().backfill(device, trendLogs);
+    }
+
+    /**
+     * Lager lageret og backfilleren første gang et device har trendlogger. Alle devicer deler samme tråd.
+     */
+    private synchronized TrendLogBackfiller trendLogBackfiller() throws Exception {
+        if (trendLogBackfiller == null) {
+            Path trendDir = Paths.get(TREND_DIR);
+            trendStore = new FileTimeSeriesStore(trendDir);
+            trendLogBackfiller = new TrendLogBackfiller(localDevice, trendStore,
+                    new TrendLogCursors(trendDir.resolve("cursors.properties")));
+        }
+        return trendLogBackfiller;
+    }
+
     private void shutdown() {
+        scheduler.shutdownNow();
+
+        if (shardCoordinator != null) {
+            shardCoordinator.stop();
+        }
+
         try {
-            if (remoteDevice != null && localDevice != null) {
+            if (covSubscriptions != null && localDevice != null) {
                 log.info("Unsubscribing from COV...");
-                SubscribeCOVRequest unsubscribeRequest = new SubscribeCOVRequest(
-                        new UnsignedInteger(1),
-                        TARGET_OBJECT,
-                        Boolean.TRUE,
-                        new UnsignedInteger(0) // lifetime = 0 means unsubscribe
-                );
-                localDevice.send(remoteDevice, unsubscribeRequest);
+                covSubscriptions.unsubscribeAll();
             }
         } catch (Exception e) {
             log.warn("Error during COV unsubscription", e);
         }
 
+        if (writer != null) {
+            writer.shutdown();
+        }
+
+        if (trendLogBackfiller != null) {
+            trendLogBackfiller.shutdown();
+        }
+        try {
+            if (trendStore != null) {
+                trendStore.close();
+            }
+        } catch (Exception e) {
+            log.warn("Error closing trend store", e);
+        }
+
         if (localDevice != null) {
             localDevice.terminate();
             log.info("Local device terminated");
@@ -2,6 +2,7 @@ package no.messom.realestate.bacnet;
 
 import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
 import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import no.messom.realestate.bacnet.alert.AlertPoint;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -10,17 +11,22 @@ import java.util.Objects;
  * Representerer et BACnet objekt med metadata
  */
 public class BacnetObject {
+    private final DeviceObjectKey key;
     private final ObjectIdentifier objectIdentifier;
     private final ObjectType objectType;
     private final int instanceNumber;
-    private String objectName;
-    private String description;
-    private Object presentValue;
-    private String units;
-    private LocalDateTime lastUpdated;
-    private boolean covSupported;
+    private final int deviceInstanceNumber;
+    private volatile String objectName;
+    private volatile String description;
+    private volatile Object presentValue;
+    private volatile String units;
+    private volatile LocalDateTime lastUpdated;
+    private volatile boolean covSupported;
+    private volatile AlertPoint alertPoint;
 
-    public BacnetObject(ObjectIdentifier objectIdentifier) {
+    public BacnetObject(int deviceInstanceNumber, ObjectIdentifier objectIdentifier) {
+        this.key = new DeviceObjectKey(deviceInstanceNumber, objectIdentifier);
+        this.deviceInstanceNumber = deviceInstanceNumber;
         this.objectIdentifier = objectIdentifier;
         this.objectType = objectIdentifier.getObjectType();
         this.instanceNumber = objectIdentifier.getInstanceNumber();
@@ -28,53 +34,69 @@ public class BacnetObject {
     }
 
     // Getters
+    public DeviceObjectKey getKey() { return key; }
     public ObjectIdentifier getObjectIdentifier() { return objectIdentifier; }
     public ObjectType getObjectType() { return objectType; }
     public int getInstanceNumber() { return instanceNumber; }
+    public int getDeviceInstanceNumber() { return deviceInstanceNumber; }
     public String getObjectName() { return objectName; }
     public String getDescription() { return description; }
     public Object getPresentValue() { return presentValue; }
     public String getUnits() { return units; }
     public LocalDateTime getLastUpdated() { return lastUpdated; }
     public boolean isCovSupported() { return covSupported; }
+    public AlertPoint getAlertPoint() { return alertPoint; }
 
-    // Setters
-    public void setObjectName(String objectName) {
+    // Setterne er bare tilgjengelige i pakken. Endringer på objekter i repository må gå gjennom
+    // BacnetObjectRepository, som publiserer en ny versjon i øyeblikksbildet etter hver endring.
+    synchronized void setObjectName(String objectName) {
         this.objectName = objectName;
         this.lastUpdated = LocalDateTime.now();
     }
 
-    public void setDescription(String description) {
+    synchronized void setDescription(String description) {
         this.description = description;
         this.lastUpdated = LocalDateTime.now();
     }
 
-    public void setPresentValue(Object presentValue) {
+    synchronized void setPresentValue(Object presentValue) {
         this.presentValue = presentValue;
         this.lastUpdated = LocalDateTime.now();
     }
 
-    public void setUnits(String units) {
+    synchronized void setUnits(String units) {
         this.units = units;
         this.lastUpdated = LocalDateTime.now();
     }
 
-    public void setCovSupported(boolean covSupported) {
+    synchronized void setCovSupported(boolean covSupported) {
         this.covSupported = covSupported;
         this.lastUpdated = LocalDateTime.now();
     }
 
+    public void setAlertPoint(AlertPoint alertPoint) {
+        this.alertPoint = alertPoint;
+    }
+
+    /**
+     * Konsistent kopi av alle feltene, brukt når repository publiserer en ny versjon
+     */
+    synchronized BacnetObjectState toState(long version) {
+        return new BacnetObjectState(objectIdentifier, deviceInstanceNumber, objectName, description,
+                presentValue, units, lastUpdated, covSupported, version);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BacnetObject that = (BacnetObject) o;
-        return Objects.equals(objectIdentifier, that.objectIdentifier);
+        return Objects.equals(key, that.key);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(objectIdentifier);
+        return Objects.hash(key);
     }
 
     @Override
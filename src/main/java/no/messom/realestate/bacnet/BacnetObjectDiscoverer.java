@@ -178,7 +178,7 @@ public class BacnetObjectDiscoverer {
             return null;
         }
 
-        BacnetObject bacnetObject = new BacnetObject(objectId);
+        BacnetObject bacnetObject = new BacnetObject(remoteDevice.getInstanceNumber(), objectId);
         log.debug("Creating BacnetObject for: {}", objectId);
 
         // Lese objektnavn - dette er ofte påkrevd så vi prøver hardere
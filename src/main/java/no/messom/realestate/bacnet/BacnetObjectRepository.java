@@ -16,15 +16,82 @@ import static org.slf4j.LoggerFactory.getLogger;
 public class BacnetObjectRepository {
     private static final Logger log = getLogger(BacnetObjectRepository.class);
 
-    private final Map<ObjectIdentifier, BacnetObject> objects = new ConcurrentHashMap<>();
+    private final Map<DeviceObjectKey, BacnetObject> objects = new ConcurrentHashMap<>();
+    private volatile PresentValueListener[] listeners = new PresentValueListener[0];
+    private Map<DeviceObjectKey, Integer> slots = new ConcurrentHashMap<>();
+    private volatile RepositorySnapshot snapshot = RepositorySnapshot.empty(0, slots);
 
     public void addObject(BacnetObject object) {
-        objects.put(object.getObjectIdentifier(), object);
-        log.debug("Added object to repository: {}", object);
+        objects.put(object.getKey(), object);
+        if (publish(object)) {
+            log.debug("Added object to repository: {}", object);
+        }
     }
 
-    public Optional<BacnetObject> findById(ObjectIdentifier objectId) {
-        return Optional.ofNullable(objects.get(objectId));
+    /**
+     * Konsistent øyeblikksbilde av hele repository. Koster ingenting å hente og kan leses
+     * uten kopiering eller låsing, mens oppdateringer fortsetter.
+     */
+    public RepositorySnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Publiserer gjeldende tilstand for objektet som en ny versjon. Alle endringer av objekter i repository
+     * går gjennom metodene her, som kaller denne etter hver endring. Oppslaget og publiseringen skjer ikke
+     * under samme lås, så et objekt som er fjernet eller erstattet i mellomtiden publiseres ikke.
+     *
+     * @return false hvis objektet ikke lenger ligger i repository
+     */
+    private synchronized boolean publish(BacnetObject object) {
+        if (objects.get(object.getKey()) != object) {
+            log.debug("Not publishing removed object: {} on device {}",
+                    object.getObjectIdentifier(), object.getDeviceInstanceNumber());
+            return false;
+        }
+
+        RepositorySnapshot current = snapshot;
+        Integer slot = slots.get(object.getKey());
+        if (slot == null) {
+            slot = current.size();
+            slots.put(object.getKey(), slot);
+        }
+
+        long version = current.getVersion() + 1;
+        snapshot = current.with(slot, object.toState(version), slots);
+        return true;
+    }
+
+    public Optional<BacnetObject> findById(int deviceInstanceNumber, ObjectIdentifier objectId) {
+        return Optional.ofNullable(objects.get(new DeviceObjectKey(deviceInstanceNumber, objectId)));
+    }
+
+    /**
+     * Oppdaterer present value og varsler lytterne. Returnerer null hvis objektet ikke er kjent.
+     */
+    public BacnetObject updatePresentValue(int deviceInstanceNumber, ObjectIdentifier objectId, Object presentValue) {
+        BacnetObject object = objects.get(new DeviceObjectKey(deviceInstanceNumber, objectId));
+        if (object == null) {
+            log.debug("Ignoring present value for unknown object: {} on device {}", objectId, deviceInstanceNumber);
+            return null;
+        }
+
+        object.setPresentValue(presentValue);
+        if (!publish(object)) {
+            return null;
+        }
+        double numericValue = PresentValues.toDouble(presentValue);
+        long now = System.currentTimeMillis();
+        for (PresentValueListener listener : listeners) {
+            listener.presentValueUpdated(object, numericValue, now);
+        }
+        return object;
+    }
+
+    public synchronized void addPresentValueListener(PresentValueListener listener) {
+        PresentValueListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
     }
 
     public List<BacnetObject> findByType(ObjectType objectType) {
@@ -46,6 +113,9 @@ public class BacnetObjectRepository {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Kopierer alle objektene til en ny liste. Bruk {@link #snapshot()} for lesing uten kopiering.
+     */
     public List<BacnetObject> getAllObjects() {
         return new ArrayList<>(objects.values());
     }
@@ -54,8 +124,37 @@ public class BacnetObjectRepository {
         return objects.size();
     }
 
-    public void clear() {
+    /**
+     * Fjerner alle objektene til et device, for eksempel når en annen node har tatt over devicet.
+     * Plassene i øyeblikksbildet beholdes, så objektene får samme plass hvis devicet kommer tilbake.
+     *
+     * @return antall objekter som ble fjernet
+     */
+    public synchronized int removeDevice(int deviceInstanceNumber) {
+        List<Integer> removedSlots = new ArrayList<>();
+        Iterator<Map.Entry<DeviceObjectKey, BacnetObject>> iterator = objects.entrySet().iterator();
+        while (iterator.hasNext()) {
+            DeviceObjectKey key = iterator.next().getKey();
+            if (key.getDeviceInstanceNumber() == deviceInstanceNumber) {
+                iterator.remove();
+                Integer slot = slots.get(key);
+                if (slot != null) {
+                    removedSlots.add(slot);
+                }
+            }
+        }
+
+        if (!removedSlots.isEmpty()) {
+            snapshot = snapshot.without(removedSlots, snapshot.getVersion() + 1);
+            log.info("Removed {} objects of device {} from repository", removedSlots.size(), deviceInstanceNumber);
+        }
+        return removedSlots.size();
+    }
+
+    public synchronized void clear() {
         objects.clear();
+        slots = new ConcurrentHashMap<>();
+        snapshot = RepositorySnapshot.empty(snapshot.getVersion() + 1, slots);
         log.info("Repository cleared");
     }
 
@@ -0,0 +1,57 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.time.LocalDateTime;
+
+/**
+ * Uforanderlig kopi av et {@link BacnetObject} slik det var ved en gitt versjon av repository
+ */
+public final class BacnetObjectState {
+    private final ObjectIdentifier objectIdentifier;
+    private final int deviceInstanceNumber;
+    private final String objectName;
+    private final String description;
+    private final Object presentValue;
+    private final String units;
+    private final LocalDateTime lastUpdated;
+    private final boolean covSupported;
+    private final long version;
+
+    BacnetObjectState(ObjectIdentifier objectIdentifier, int deviceInstanceNumber, String objectName,
+                      String description, Object presentValue, String units, LocalDateTime lastUpdated,
+                      boolean covSupported, long version) {
+        this.objectIdentifier = objectIdentifier;
+        this.deviceInstanceNumber = deviceInstanceNumber;
+        this.objectName = objectName;
+        this.description = description;
+        this.presentValue = presentValue;
+        this.units = units;
+        this.lastUpdated = lastUpdated;
+        this.covSupported = covSupported;
+        this.version = version;
+    }
+
+    public ObjectIdentifier getObjectIdentifier() { return objectIdentifier; }
+    public ObjectType getObjectType() { return objectIdentifier.getObjectType(); }
+    public int getInstanceNumber() { return objectIdentifier.getInstanceNumber(); }
+    public int getDeviceInstanceNumber() { return deviceInstanceNumber; }
+    public String getObjectName() { return objectName; }
+    public String getDescription() { return description; }
+    public Object getPresentValue() { return presentValue; }
+    public String getUnits() { return units; }
+    public LocalDateTime getLastUpdated() { return lastUpdated; }
+    public boolean isCovSupported() { return covSupported; }
+
+    /**
+     * Repository-versjonen da denne tilstanden ble publisert
+     */
+    public long getVersion() { return version; }
+
+    @Override
+    public String toString() {
+        return String.format("BacnetObjectState{%s:%d, name='%s', value=%s, version=%d}",
+                getObjectType(), getInstanceNumber(), objectName, presentValue, version);
+    }
+}
@@ -0,0 +1,41 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.Objects;
+
+/**
+ * Identifiserer et objekt på tvers av devicer. Objekt-id er bare unik innenfor ett device,
+ * og flere kontrollere har gjerne for eksempel {@code analogValue:1}.
+ */
+public final class DeviceObjectKey {
+    private final int deviceInstanceNumber;
+    private final ObjectIdentifier objectIdentifier;
+
+    public DeviceObjectKey(int deviceInstanceNumber, ObjectIdentifier objectIdentifier) {
+        this.deviceInstanceNumber = deviceInstanceNumber;
+        this.objectIdentifier = objectIdentifier;
+    }
+
+    public int getDeviceInstanceNumber() { return deviceInstanceNumber; }
+    public ObjectIdentifier getObjectIdentifier() { return objectIdentifier; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DeviceObjectKey that = (DeviceObjectKey) o;
+        return deviceInstanceNumber == that.deviceInstanceNumber &&
+                Objects.equals(objectIdentifier, that.objectIdentifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceInstanceNumber, objectIdentifier);
+    }
+
+    @Override
+    public String toString() {
+        return deviceInstanceNumber + "/" + objectIdentifier;
+    }
+}
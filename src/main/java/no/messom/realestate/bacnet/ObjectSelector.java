@@ -0,0 +1,91 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Velger objekter etter device, objekttype, instansnummer og/eller navnemønster.
+ * Kriterier som ikke er satt matcher alle objekter.
+ */
+public final class ObjectSelector {
+    public static final ObjectSelector ALL = new ObjectSelector(-1, null, -1, null);
+
+    private final int deviceInstanceNumber;
+    private final ObjectType objectType;
+    private final int instanceNumber;
+    private final Pattern namePattern;
+
+    /**
+     * @param deviceInstanceNumber device som må matche, eller -1 for alle
+     * @param objectType           objekttype som må matche, eller null for alle
+     * @param instanceNumber       instansnummer som må matche, eller -1 for alle
+     * @param namePattern          mønster objektnavnet må matche, eller null for alle
+     */
+    public ObjectSelector(int deviceInstanceNumber, ObjectType objectType, int instanceNumber, Pattern namePattern) {
+        this.deviceInstanceNumber = deviceInstanceNumber;
+        this.objectType = objectType;
+        this.instanceNumber = instanceNumber;
+        this.namePattern = namePattern;
+    }
+
+    /**
+     * Leser {@code device}, {@code objectType}, {@code object} ({@code <objectType>:<instance>})
+     * og {@code name} (regex) under gitt prefiks
+     */
+    public static ObjectSelector fromProperties(Properties properties, String prefix) {
+        int device = Integer.parseInt(properties.getProperty(prefix + "device", "-1").trim());
+        ObjectType objectType = null;
+        int instanceNumber = -1;
+
+        String object = properties.getProperty(prefix + "object");
+        if (object != null) {
+            String[] parts = object.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(prefix + "object must be '<objectType>:<instance>'");
+            }
+            objectType = parseObjectType(parts[0]);
+            instanceNumber = Integer.parseInt(parts[1].trim());
+        }
+        String type = properties.getProperty(prefix + "objectType");
+        if (type != null) {
+            objectType = parseObjectType(type);
+        }
+        String name = properties.getProperty(prefix + "name");
+        Pattern namePattern = name != null ? Pattern.compile(name.trim()) : null;
+
+        return new ObjectSelector(device, objectType, instanceNumber, namePattern);
+    }
+
+    public boolean matches(BacnetObject object) {
+        if (deviceInstanceNumber >= 0 && deviceInstanceNumber != object.getDeviceInstanceNumber()) {
+            return false;
+        }
+        if (objectType != null && !objectType.equals(object.getObjectType())) {
+            return false;
+        }
+        if (instanceNumber >= 0 && instanceNumber != object.getInstanceNumber()) {
+            return false;
+        }
+        if (namePattern != null) {
+            String name = object.getObjectName();
+            return name != null && namePattern.matcher(name).matches();
+        }
+        return true;
+    }
+
+    private static ObjectType parseObjectType(String value) {
+        ObjectType objectType = ObjectType.forName(value.trim());
+        if (objectType == null) {
+            throw new IllegalArgumentException("Unknown object type '" + value + "'");
+        }
+        return objectType;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ObjectSelector{device=%d, type=%s, instance=%d, name=%s}",
+                deviceInstanceNumber, objectType, instanceNumber, namePattern);
+    }
+}
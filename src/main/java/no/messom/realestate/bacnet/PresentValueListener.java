@@ -0,0 +1,16 @@
+package no.messom.realestate.bacnet;
+
+/**
+ * Lytter som varsles hver gang present value for et objekt oppdateres i repository
+ */
+public interface PresentValueListener {
+
+    /**
+     * Kalles på tråden som leverte oppdateringen (COV eller lesing), og må derfor returnere raskt.
+     *
+     * @param object          objektet som ble oppdatert
+     * @param value           ny verdi som tall, eller {@link Double#NaN} hvis verdien ikke er numerisk
+     * @param timestampMillis tidspunkt for oppdateringen i epoch millis
+     */
+    void presentValueUpdated(BacnetObject object, double value, long timestampMillis);
+}
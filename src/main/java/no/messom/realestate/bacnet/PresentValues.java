@@ -0,0 +1,47 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.enumerated.BinaryPV;
+import com.serotonin.bacnet4j.type.primitive.Enumerated;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import com.serotonin.bacnet4j.type.primitive.SignedInteger;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+
+/**
+ * Hjelpemetoder for å tolke present value som tall uten å allokere
+ */
+public final class PresentValues {
+
+    private PresentValues() {
+    }
+
+    /**
+     * Returnerer verdien som double, eller {@link Double#NaN} hvis verdien ikke er numerisk
+     */
+    public static double toDouble(Object value) {
+        if (value instanceof Real real) {
+            return real.floatValue();
+        }
+        if (value instanceof com.serotonin.bacnet4j.type.primitive.Double bacnetDouble) {
+            return bacnetDouble.doubleValue();
+        }
+        if (value instanceof BinaryPV binaryPV) {
+            return BinaryPV.active.equals(binaryPV) ? 1 : 0;
+        }
+        if (value instanceof Enumerated enumerated) {
+            return enumerated.intValue();
+        }
+        if (value instanceof UnsignedInteger unsignedInteger) {
+            return unsignedInteger.longValue();
+        }
+        if (value instanceof SignedInteger signedInteger) {
+            return signedInteger.longValue();
+        }
+        if (value instanceof com.serotonin.bacnet4j.type.primitive.Boolean bacnetBoolean) {
+            return bacnetBoolean.booleanValue() ? 1 : 0;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,205 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Uforanderlig øyeblikksbilde av hele {@link BacnetObjectRepository} ved én versjon.
+ * Tilstandene ligger i et 32-veis tre der hver oppdatering kopierer bare stien ned til objektet,
+ * så et nytt øyeblikksbilde deler resten av treet med det forrige. Hver node husker høyeste versjon
+ * under seg, slik at {@link #changesSince(long)} bare besøker grener som faktisk er endret.
+ */
+public final class RepositorySnapshot implements Iterable<BacnetObjectState> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final long version;
+    private final long clearedVersion;
+    private final Node root;
+    private final int shift;
+    private final int size;
+    private final Map<DeviceObjectKey, Integer> slots;
+
+    private RepositorySnapshot(long version, long clearedVersion, Node root, int shift, int size,
+                               Map<DeviceObjectKey, Integer> slots) {
+        this.version = version;
+        this.clearedVersion = clearedVersion;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+        this.slots = slots;
+    }
+
+    /**
+     * Tomt øyeblikksbilde, brukt ved oppstart og når repository tømmes
+     */
+    static RepositorySnapshot empty(long version, Map<DeviceObjectKey, Integer> slots) {
+        return new RepositorySnapshot(version, version, new Node(new Object[WIDTH], version), 0, 0, slots);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Versjonen da objekter sist ble fjernet, ved {@code clear()} eller når et device slippes.
+     * En konsument som har lest til en eldre versjon må lese hele øyeblikksbildet på nytt,
+     * siden {@link #changesSince(long)} ikke viser fjernede objekter.
+     */
+    public long getClearedVersion() {
+        return clearedVersion;
+    }
+
+    /**
+     * Antall plasser i øyeblikksbildet, som er antall objekter lagt til siden siste {@code clear()}.
+     * Plassene til fjernede objekter står tomme til objektet legges til igjen.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Optional<BacnetObjectState> find(int deviceInstanceNumber, ObjectIdentifier objectId) {
+        Integer slot = slots.get(new DeviceObjectKey(deviceInstanceNumber, objectId));
+        if (slot == null || slot >= size) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(get(slot));
+    }
+
+    @Override
+    public void forEach(Consumer<? super BacnetObjectState> action) {
+        visit(root, shift, -1, action);
+    }
+
+    /**
+     * Går gjennom objektene som er endret etter {@code sinceVersion}, slik de var ved denne versjonen
+     */
+    public void forEachChangeSince(long sinceVersion, Consumer<? super BacnetObjectState> action) {
+        visit(root, shift, sinceVersion, action);
+    }
+
+    public List<BacnetObjectState> changesSince(long sinceVersion) {
+        List<BacnetObjectState> changes = new ArrayList<>();
+        forEachChangeSince(sinceVersion, changes::add);
+        return changes;
+    }
+
+    @Override
+    public Iterator<BacnetObjectState> iterator() {
+        return new Iterator<>() {
+            private int slot = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < size;
+            }
+
+            @Override
+            public BacnetObjectState next() {
+                if (slot >= size) {
+                    throw new NoSuchElementException();
+                }
+                BacnetObjectState state = get(slot);
+                slot = advance(slot + 1);
+                return state;
+            }
+
+            private int advance(int from) {
+                while (from < size && get(from) == null) {
+                    from++;
+                }
+                return from;
+            }
+        };
+    }
+
+    /**
+     * Returnerer et nytt øyeblikksbilde med {@code state} i {@code slot}. Kalles bare av repository under skrivelås.
+     */
+    RepositorySnapshot with(int slot, BacnetObjectState state, Map<DeviceObjectKey, Integer> slots) {
+        Node newRoot = root;
+        int newShift = shift;
+        while (slot >>> newShift >= WIDTH) {
+            Object[] children = new Object[WIDTH];
+            children[0] = newRoot;
+            newRoot = new Node(children, newRoot.maxVersion);
+            newShift += BITS;
+        }
+        newRoot = set(newRoot, newShift, slot, state, state.getVersion());
+        return new RepositorySnapshot(state.getVersion(), clearedVersion, newRoot, newShift,
+                Math.max(size, slot + 1), slots);
+    }
+
+    /**
+     * Returnerer et nytt øyeblikksbilde der {@code removedSlots} er tomme. Kalles bare av repository under skrivelås.
+     */
+    RepositorySnapshot without(List<Integer> removedSlots, long newVersion) {
+        Node newRoot = root;
+        for (int slot : removedSlots) {
+            if (slot < size) {
+                newRoot = set(newRoot, shift, slot, null, newVersion);
+            }
+        }
+        return new RepositorySnapshot(newVersion, newVersion, newRoot, shift, size, slots);
+    }
+
+    private BacnetObjectState get(int slot) {
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.children[(slot >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (BacnetObjectState) node.children[slot & MASK];
+    }
+
+    private static Node set(Node node, int level, int slot, BacnetObjectState state, long version) {
+        Object[] children = node != null ? node.children.clone() : new Object[WIDTH];
+        int index = (slot >>> level) & MASK;
+        if (level == 0) {
+            children[index] = state;
+        } else {
+            children[index] = set((Node) children[index], level - BITS, slot, state, version);
+        }
+        // Versjonene øker alltid, så endringen har høyeste versjon i grenen
+        return new Node(children, version);
+    }
+
+    private static void visit(Node node, int level, long sinceVersion, Consumer<? super BacnetObjectState> action) {
+        if (node == null || node.maxVersion <= sinceVersion) {
+            return;
+        }
+        for (Object child : node.children) {
+            if (child == null) {
+                continue;
+            }
+            if (level == 0) {
+                BacnetObjectState state = (BacnetObjectState) child;
+                if (state.getVersion() > sinceVersion) {
+                    action.accept(state);
+                }
+            } else {
+                visit((Node) child, level - BITS, sinceVersion, action);
+            }
+        }
+    }
+
+    private static final class Node {
+        final Object[] children;
+        final long maxVersion;
+
+        Node(Object[] children, long maxVersion) {
+            this.children = children;
+            this.maxVersion = maxVersion;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package no.messom.realestate.bacnet.aggregate;
+
+/**
+ * Min/max/snitt/antall for et tidsvindu. Min, max og snitt er {@link Double#NaN} når vinduet er tomt.
+ */
+public final class Aggregate {
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final long count;
+
+    public Aggregate(double min, double max, double sum, long count) {
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+    }
+
+    public double getMin() { return min; }
+    public double getMax() { return max; }
+    public double getSum() { return sum; }
+    public long getCount() { return count; }
+    public double getAverage() { return count == 0 ? Double.NaN : sum / count; }
+
+    @Override
+    public String toString() {
+        return String.format("Aggregate{min=%s, max=%s, avg=%s, count=%d}", min, max, getAverage(), count);
+    }
+}
@@ -0,0 +1,92 @@
+package no.messom.realestate.bacnet.aggregate;
+
+import no.messom.realestate.bacnet.ObjectSelector;
+
+/**
+ * En gruppe objekter med felles aggregater. Gruppen holder både et rullerende vindu over alle
+ * verdier fra medlemmene og løpende sum og antall for siste verdi per medlem, slik at for eksempel
+ * snitt av romtemperaturer eller antall vifter i drift kan leses uten å gå gjennom objektene.
+ */
+public final class AggregateGroup {
+    private final String name;
+    private final ObjectSelector selector;
+    private final RollingWindow window;
+    private int members;
+    private int reporting;
+    private int active;
+    private double currentSum;
+
+    AggregateGroup(String name, ObjectSelector selector, RollingWindow window) {
+        this.name = name;
+        this.selector = selector;
+        this.window = window;
+    }
+
+    public String getName() { return name; }
+    public ObjectSelector getSelector() { return selector; }
+
+    public Aggregate getWindow(long nowMillis) {
+        return window.get(nowMillis);
+    }
+
+    public synchronized int getMemberCount() { return members; }
+
+    /**
+     * Antall medlemmer som har rapportert en numerisk verdi
+     */
+    public synchronized int getReportingCount() { return reporting; }
+
+    /**
+     * Antall medlemmer der siste verdi er ulik 0, for eksempel binære objekter som er aktive
+     */
+    public synchronized int getActiveCount() { return active; }
+
+    /**
+     * Snitt av siste verdi for hvert medlem
+     */
+    public synchronized double getCurrentAverage() {
+        return reporting == 0 ? Double.NaN : currentSum / reporting;
+    }
+
+    synchronized void addMember() {
+        members++;
+    }
+
+    /**
+     * Tar ut et medlem og siste verdi fra det, slik at snitt og antall aktive bare gjelder objekter vi overvåker
+     */
+    synchronized void removeMember(double lastValue) {
+        members--;
+        if (!Double.isNaN(lastValue)) {
+            reporting--;
+            currentSum -= lastValue;
+            if (lastValue != 0) {
+                active--;
+            }
+        }
+    }
+
+    void update(double previousValue, double value, long timestampMillis) {
+        synchronized (this) {
+            if (Double.isNaN(previousValue)) {
+                reporting++;
+                currentSum += value;
+            } else {
+                currentSum += value - previousValue;
+                if (previousValue != 0) {
+                    active--;
+                }
+            }
+            if (value != 0) {
+                active++;
+            }
+        }
+        window.add(value, timestampMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AggregateGroup{%s, members=%d, reporting=%d, active=%d, currentAvg=%s}",
+                name, getMemberCount(), getReportingCount(), getActiveCount(), getCurrentAverage());
+    }
+}
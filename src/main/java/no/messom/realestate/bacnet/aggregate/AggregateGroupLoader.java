@@ -0,0 +1,72 @@
+package no.messom.realestate.bacnet.aggregate;
+
+import no.messom.realestate.bacnet.ObjectSelector;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Leser aggregatgrupper fra en properties-fil. Hver gruppe har et eget prefiks {@code group.<navn>.}
+ * og velger objekter med {@link ObjectSelector#fromProperties(Properties, String)}:
+ * <pre>
+ * group.zone-temperatures.objectType=analogValue
+ * group.zone-temperatures.name=.*Romtemp.*
+ *
+ * group.fans.device=2640
+ * group.fans.objectType=binaryValue
+ * group.fans.name=.*Vifte.*
+ * </pre>
+ */
+public final class AggregateGroupLoader {
+    private static final Logger log = getLogger(AggregateGroupLoader.class);
+
+    public static final String GROUPS_FILE_PROPERTY = "bacnet.aggregate.groups";
+    public static final String DEFAULT_GROUPS_FILE = "aggregate-groups.properties";
+    private static final String PREFIX = "group.";
+
+    private AggregateGroupLoader() {
+    }
+
+    /**
+     * Legger til gruppene fra filen angitt med {@value #GROUPS_FILE_PROPERTY}, eller {@value #DEFAULT_GROUPS_FILE}.
+     * Manglende fil gir ingen grupper.
+     */
+    public static int loadConfigured(AggregationEngine engine) throws IOException {
+        Path path = Paths.get(System.getProperty(GROUPS_FILE_PROPERTY, DEFAULT_GROUPS_FILE));
+        if (!Files.isRegularFile(path)) {
+            log.info("No aggregate groups file found at {}, only per-object aggregates are kept", path.toAbsolutePath());
+            return 0;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        int count = addGroups(engine, properties);
+        log.info("Loaded {} aggregate groups from {}", count, path.toAbsolutePath());
+        return count;
+    }
+
+    public static int addGroups(AggregationEngine engine, Properties properties) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX) && key.indexOf('.', PREFIX.length()) > 0) {
+                names.add(key.substring(PREFIX.length(), key.indexOf('.', PREFIX.length())));
+            }
+        }
+
+        for (String name : names) {
+            engine.addGroup(name, ObjectSelector.fromProperties(properties, PREFIX + name + "."));
+        }
+        return names.size();
+    }
+}
@@ -0,0 +1,175 @@
+package no.messom.realestate.bacnet.aggregate;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import no.messom.realestate.bacnet.BacnetObject;
+import no.messom.realestate.bacnet.BacnetObjectRepository;
+import no.messom.realestate.bacnet.DeviceObjectKey;
+import no.messom.realestate.bacnet.ObjectSelector;
+import no.messom.realestate.bacnet.PresentValueListener;
+import no.messom.realestate.bacnet.PresentValues;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Holder rullerende min/max/snitt/antall per objekt og per gruppe. Aggregatene oppdateres
+ * inkrementelt for hver verdioppdatering, så lesing krever ingen gjennomgang av repository.
+ */
+public class AggregationEngine implements PresentValueListener {
+    private static final Logger log = getLogger(AggregationEngine.class);
+
+    private final BacnetObjectRepository repository;
+    private final long windowMillis;
+    private final int buckets;
+    private final Map<String, AggregateGroup> groups = new ConcurrentHashMap<>();
+    private final Map<DeviceObjectKey, ObjectAggregate> objects = new ConcurrentHashMap<>();
+
+    public AggregationEngine(BacnetObjectRepository repository, long windowMillis, int buckets) {
+        this.repository = repository;
+        this.windowMillis = windowMillis;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Legger til en gruppe. Grupper må legges til før objektene bindes med {@link #bind()}.
+     */
+    public AggregateGroup addGroup(String name, ObjectSelector selector) {
+        if (!objects.isEmpty()) {
+            throw new IllegalStateException("Groups must be added before objects are bound");
+        }
+        AggregateGroup group = new AggregateGroup(name, selector, new RollingWindow(windowMillis, buckets));
+        if (groups.putIfAbsent(name, group) != null) {
+            throw new IllegalArgumentException("Group already exists: " + name);
+        }
+        return group;
+    }
+
+    /**
+     * Knytter alle objekter i repository til gruppene sine og tar med nåværende verdi.
+     * Objekter som dukker opp senere bindes ved første oppdatering.
+     */
+    public void bind() {
+        long now = System.currentTimeMillis();
+        for (BacnetObject object : repository.getAllObjects()) {
+            ObjectAggregate aggregate = objects.get(object.getKey());
+            if (aggregate == null) {
+                aggregate = bindObject(object);
+                double value = PresentValues.toDouble(object.getPresentValue());
+                if (!Double.isNaN(value)) {
+                    update(aggregate, value, now);
+                }
+            }
+        }
+        log.info("Aggregation bound {} objects into {} groups", objects.size(), groups.size());
+    }
+
+    @Override
+    public void presentValueUpdated(BacnetObject object, double value, long timestampMillis) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        ObjectAggregate aggregate = objects.get(object.getKey());
+        if (aggregate == null) {
+            // Objekter fra et device som nettopp er sluppet skal ikke bindes på nytt
+            if (repository.findById(object.getDeviceInstanceNumber(), object.getObjectIdentifier()).isEmpty()) {
+                return;
+            }
+            aggregate = bindObject(object);
+        }
+        update(aggregate, value, timestampMillis);
+    }
+
+    /**
+     * Tar objektene til et device ut av gruppene, så gruppesnittet ikke holder på siste verdi fra
+     * objekter som ikke lenger oppdateres. Verdiene som allerede er i gruppevinduene eldes ut som vanlig.
+     *
+     * @return antall objekter som ble fjernet
+     */
+    public int removeDevice(int deviceInstanceNumber) {
+        int removed = 0;
+        Iterator<Map.Entry<DeviceObjectKey, ObjectAggregate>> iterator = objects.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<DeviceObjectKey, ObjectAggregate> entry = iterator.next();
+            if (entry.getKey().getDeviceInstanceNumber() != deviceInstanceNumber) {
+                continue;
+            }
+            iterator.remove();
+            ObjectAggregate aggregate = entry.getValue();
+            double lastValue;
+            synchronized (aggregate) {
+                aggregate.removed = true;
+                lastValue = aggregate.lastValue;
+            }
+            for (AggregateGroup group : aggregate.groups) {
+                group.removeMember(lastValue);
+            }
+            removed++;
+        }
+        log.info("Removed {} objects of device {} from aggregation", removed, deviceInstanceNumber);
+        return removed;
+    }
+
+    public Optional<Aggregate> getObjectAggregate(int deviceInstanceNumber, ObjectIdentifier objectId) {
+        ObjectAggregate aggregate = objects.get(new DeviceObjectKey(deviceInstanceNumber, objectId));
+        return aggregate == null ? Optional.empty() : Optional.of(aggregate.window.get(System.currentTimeMillis()));
+    }
+
+    public Optional<AggregateGroup> getGroup(String name) {
+        return Optional.ofNullable(groups.get(name));
+    }
+
+    public Collection<AggregateGroup> getGroups() {
+        return Collections.unmodifiableCollection(groups.values());
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void logGroups() {
+        long now = System.currentTimeMillis();
+        for (AggregateGroup group : groups.values()) {
+            log.info("{} window={}", group, group.getWindow(now));
+        }
+    }
+
+    private ObjectAggregate bindObject(BacnetObject object) {
+        return objects.computeIfAbsent(object.getKey(), key -> {
+            List<AggregateGroup> matching = new ArrayList<>();
+            for (AggregateGroup group : groups.values()) {
+                if (group.getSelector().matches(object)) {
+                    group.addMember();
+                    matching.add(group);
+                }
+            }
+            return new ObjectAggregate(new RollingWindow(windowMillis, buckets),
+                    matching.toArray(new AggregateGroup[0]));
+        });
+    }
+
+    private void update(ObjectAggregate aggregate, double value, long timestampMillis) {
+        double previousValue;
+        synchronized (aggregate) {
+            if (aggregate.removed) {
+                return;
+            }
+            previousValue = aggregate.lastValue;
+            aggregate.lastValue = value;
+            // Gruppene oppdateres under samme lås, så removeDevice alltid trekker fra siste verdi som ble lagt til
+            for (AggregateGroup group : aggregate.groups) {
+                group.update(previousValue, value, timestampMillis);
+            }
+        }
+
+        aggregate.window.add(value, timestampMillis);
+    }
+}
@@ -0,0 +1,17 @@
+package no.messom.realestate.bacnet.aggregate;
+
+/**
+ * Aggregattilstand for ett objekt: eget rullerende vindu, siste verdi og gruppene objektet hører til
+ */
+final class ObjectAggregate {
+    final RollingWindow window;
+    final AggregateGroup[] groups;
+    double lastValue = Double.NaN;
+    // Settes når devicet er sluppet, så oppdateringer som allerede er på vei ikke telles med
+    boolean removed;
+
+    ObjectAggregate(RollingWindow window, AggregateGroup[] groups) {
+        this.window = window;
+        this.groups = groups;
+    }
+}
@@ -0,0 +1,78 @@
+package no.messom.realestate.bacnet.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * Rullerende tidsvindu med min/max/sum/antall, delt i et fast antall bøtter. Nye verdier legges
+ * i gjeldende bøtte, og bøtter som har falt ut av vinduet nullstilles når de gjenbrukes.
+ * Lesing kombinerer et fast antall bøtter og er derfor uavhengig av antall verdier.
+ */
+public final class RollingWindow {
+    private final long bucketMillis;
+    private final long[] epochs;
+    private final double[] min;
+    private final double[] max;
+    private final double[] sum;
+    private final long[] count;
+
+    public RollingWindow(long windowMillis, int buckets) {
+        if (windowMillis <= 0 || buckets <= 0 || windowMillis < buckets) {
+            throw new IllegalArgumentException("Window must be positive and at least one millisecond per bucket");
+        }
+        this.bucketMillis = windowMillis / buckets;
+        this.epochs = new long[buckets];
+        this.min = new double[buckets];
+        this.max = new double[buckets];
+        this.sum = new double[buckets];
+        this.count = new long[buckets];
+        Arrays.fill(epochs, -1);
+    }
+
+    public synchronized void add(double value, long timestampMillis) {
+        long epoch = timestampMillis / bucketMillis;
+        int index = (int) (epoch % epochs.length);
+        if (epochs[index] != epoch) {
+            epochs[index] = epoch;
+            min[index] = value;
+            max[index] = value;
+            sum[index] = value;
+            count[index] = 1;
+            return;
+        }
+        if (value < min[index]) {
+            min[index] = value;
+        }
+        if (value > max[index]) {
+            max[index] = value;
+        }
+        sum[index] += value;
+        count[index]++;
+    }
+
+    public synchronized Aggregate get(long nowMillis) {
+        long currentEpoch = nowMillis / bucketMillis;
+        double windowMin = Double.NaN;
+        double windowMax = Double.NaN;
+        double windowSum = 0;
+        long windowCount = 0;
+
+        for (int i = 0; i < epochs.length; i++) {
+            if (epochs[i] < 0 || currentEpoch - epochs[i] >= epochs.length || epochs[i] > currentEpoch) {
+                continue;
+            }
+            if (windowCount == 0 || min[i] < windowMin) {
+                windowMin = min[i];
+            }
+            if (windowCount == 0 || max[i] > windowMax) {
+                windowMax = max[i];
+            }
+            windowSum += sum[i];
+            windowCount += count[i];
+        }
+        return new Aggregate(windowMin, windowMax, windowSum, windowCount);
+    }
+
+    public long getWindowMillis() {
+        return bucketMillis * epochs.length;
+    }
+}
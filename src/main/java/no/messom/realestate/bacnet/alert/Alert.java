@@ -0,0 +1,48 @@
+package no.messom.realestate.bacnet.alert;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+/**
+ * En alarm som er utløst eller kvittert av {@link AlertEngine}
+ */
+public final class Alert {
+    private final String ruleId;
+    private final AlertKind kind;
+    private final int deviceInstanceNumber;
+    private final ObjectIdentifier objectIdentifier;
+    private final String objectName;
+    private final double value;
+    private final boolean raised;
+    private final long timestampMillis;
+    private final String message;
+
+    public Alert(String ruleId, AlertKind kind, int deviceInstanceNumber, ObjectIdentifier objectIdentifier,
+                 String objectName, double value, boolean raised, long timestampMillis, String message) {
+        this.ruleId = ruleId;
+        this.kind = kind;
+        this.deviceInstanceNumber = deviceInstanceNumber;
+        this.objectIdentifier = objectIdentifier;
+        this.objectName = objectName;
+        this.value = value;
+        this.raised = raised;
+        this.timestampMillis = timestampMillis;
+        this.message = message;
+    }
+
+    public String getRuleId() { return ruleId; }
+    public AlertKind getKind() { return kind; }
+    public int getDeviceInstanceNumber() { return deviceInstanceNumber; }
+    public ObjectIdentifier getObjectIdentifier() { return objectIdentifier; }
+    public String getObjectName() { return objectName; }
+    public double getValue() { return value; }
+    public boolean isRaised() { return raised; }
+    public long getTimestampMillis() { return timestampMillis; }
+    public String getMessage() { return message; }
+
+    @Override
+    public String toString() {
+        return String.format("Alert{%s %s, rule=%s, kind=%s, device=%s, object=%s, name='%s', value=%s, message='%s'}",
+                raised ? "RAISED" : "CLEARED", timestampMillis, ruleId, kind, deviceInstanceNumber,
+                objectIdentifier, objectName, value, message);
+    }
+}
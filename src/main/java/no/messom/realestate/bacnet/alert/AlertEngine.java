@@ -0,0 +1,249 @@
+package no.messom.realestate.bacnet.alert;
+
+import com.serotonin.bacnet4j.type.enumerated.EventState;
+import com.serotonin.bacnet4j.type.enumerated.EventType;
+import com.serotonin.bacnet4j.type.primitive.CharacterString;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import no.messom.realestate.bacnet.BacnetObject;
+import no.messom.realestate.bacnet.BacnetObjectRepository;
+import no.messom.realestate.bacnet.DeviceObjectKey;
+import no.messom.realestate.bacnet.PresentValueListener;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Evaluerer alarmregler for hver verdioppdatering. Reglene kompileres til en tabell per objekt
+ * med {@link #compile()}, slik at evalueringen på COV-stien verken allokerer eller gjør oppslag.
+ * Alarmer sendes bare ved overgang mellom normal og brutt tilstand.
+ */
+public class AlertEngine implements PresentValueListener {
+    private static final Logger log = getLogger(AlertEngine.class);
+
+    private final BacnetObjectRepository repository;
+    private final List<AlertRule> rules;
+    private final AlertListener listener;
+    private volatile AlertPoint[] points = new AlertPoint[0];
+
+    public AlertEngine(BacnetObjectRepository repository, List<AlertRule> rules, AlertListener listener) {
+        this.repository = repository;
+        this.rules = List.copyOf(rules);
+        this.listener = listener;
+    }
+
+    /**
+     * Knytter reglene til objektene i repository. Må kjøres på nytt når nye objekter er oppdaget.
+     * Objekter som allerede har et punkt beholder aktive alarmer og verdihistorikk, så en ny kompilering
+     * verken sender alarmene på nytt eller nullstiller tiden en STUCK-regel har ventet.
+     *
+     * @return antall objekter som har minst én regel
+     */
+    public synchronized int compile() {
+        Map<DeviceObjectKey, AlertPoint> previous = new HashMap<>();
+        for (AlertPoint point : points) {
+            previous.put(point.object.getKey(), point);
+        }
+
+        List<AlertPoint> compiled = new ArrayList<>();
+        for (BacnetObject object : repository.getAllObjects()) {
+            List<AlertRule> matching = new ArrayList<>();
+            for (AlertRule rule : rules) {
+                if (rule.matches(object)) {
+                    matching.add(rule);
+                }
+            }
+
+            AlertPoint existing = previous.remove(object.getKey());
+            if (matching.isEmpty()) {
+                object.setAlertPoint(null);
+                if (existing != null) {
+                    retire(existing, new AlertRule[0]);
+                }
+            } else {
+                AlertRule[] pointRules = matching.toArray(new AlertRule[0]);
+                AlertPoint point;
+                if (existing != null && existing.object == object && Arrays.equals(existing.rules, pointRules)) {
+                    point = existing;
+                } else {
+                    point = new AlertPoint(object, pointRules);
+                    if (existing != null) {
+                        carryOver(existing, point);
+                    }
+                }
+                object.setAlertPoint(point);
+                compiled.add(point);
+            }
+        }
+
+        // Objekter som ikke lenger finnes i repository
+        for (AlertPoint stale : previous.values()) {
+            stale.object.setAlertPoint(null);
+            retire(stale, new AlertRule[0]);
+        }
+
+        points = compiled.toArray(new AlertPoint[0]);
+        log.info("Compiled {} alert rules onto {} objects", rules.size(), compiled.size());
+        return compiled.size();
+    }
+
+    @Override
+    public void presentValueUpdated(BacnetObject object, double value, long timestampMillis) {
+        AlertPoint point = object.getAlertPoint();
+        if (point == null || Double.isNaN(value)) {
+            return;
+        }
+
+        synchronized (point) {
+            if (point.released) {
+                return;
+            }
+            if (point.lastChangeMillis == 0 || value != point.lastValue) {
+                point.lastChangeMillis = timestampMillis;
+            }
+
+            AlertRule[] pointRules = point.rules;
+            for (int i = 0; i < pointRules.length; i++) {
+                boolean violated = pointRules[i].isViolated(point, value, timestampMillis);
+                if (violated != point.active[i]) {
+                    point.active[i] = violated;
+                    fire(pointRules[i], point, value, violated, timestampMillis);
+                }
+            }
+
+            point.lastValue = value;
+            point.lastSampleMillis = timestampMillis;
+        }
+    }
+
+    /**
+     * Sjekker STUCK-regler. COV sender ingenting når verdien står stille, så dette må kjøres periodisk.
+     */
+    public void checkStuck(long nowMillis) {
+        for (AlertPoint point : points) {
+            synchronized (point) {
+                if (point.released) {
+                    continue;
+                }
+                AlertRule[] pointRules = point.rules;
+                for (int i = 0; i < pointRules.length; i++) {
+                    if (pointRules[i].getKind() == AlertKind.STUCK && !point.active[i]
+                            && pointRules[i].isStuck(point, nowMillis)) {
+                        point.active[i] = true;
+                        fire(pointRules[i], point, point.lastValue, true, nowMillis);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fjerner alarmpunktene til et device som ikke lenger overvåkes. Aktive alarmer kvitteres ikke,
+     * siden noden som tar over devicet evaluerer dem på nytt.
+     *
+     * @return antall punkter som ble fjernet
+     */
+    public synchronized int removeDevice(int deviceInstanceNumber) {
+        List<AlertPoint> remaining = new ArrayList<>();
+        int removed = 0;
+        for (AlertPoint point : points) {
+            if (point.object.getDeviceInstanceNumber() != deviceInstanceNumber) {
+                remaining.add(point);
+                continue;
+            }
+            synchronized (point) {
+                point.released = true;
+            }
+            point.object.setAlertPoint(null);
+            removed++;
+        }
+        points = remaining.toArray(new AlertPoint[0]);
+        log.info("Removed {} alert points of device {}", removed, deviceInstanceNumber);
+        return removed;
+    }
+
+    /**
+     * Sender intrinsic event notifications fra enheten gjennom samme alarmkanal som reglene
+     */
+    public void eventNotificationReceived(int deviceInstanceNumber, ObjectIdentifier eventObjectIdentifier,
+                                          EventType eventType, EventState fromState, EventState toState,
+                                          CharacterString messageText) {
+        boolean raised = !EventState.normal.equals(toState);
+        BacnetObject object = repository.findById(deviceInstanceNumber, eventObjectIdentifier).orElse(null);
+        AlertPoint point = object != null ? object.getAlertPoint() : null;
+        double value = point != null ? point.lastValue : Double.NaN;
+        String message = String.format("%s: %s -> %s%s", eventType, fromState, toState,
+                messageText != null ? " (" + messageText + ")" : "");
+        publish(new Alert("event:" + eventType, AlertKind.EVENT, deviceInstanceNumber, eventObjectIdentifier,
+                object != null ? object.getObjectName() : null, value, raised, System.currentTimeMillis(), message));
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    /**
+     * Flytter verdihistorikk og aktive alarmer for regler som fortsatt gjelder over til det nye punktet,
+     * og kvitterer alarmer for regler som ikke lenger gjelder for objektet
+     */
+    private void carryOver(AlertPoint from, AlertPoint to) {
+        synchronized (from) {
+            to.lastValue = from.lastValue;
+            to.lastSampleMillis = from.lastSampleMillis;
+            to.lastChangeMillis = from.lastChangeMillis;
+            for (int i = 0; i < to.rules.length; i++) {
+                int index = indexOf(from.rules, to.rules[i]);
+                if (index >= 0) {
+                    to.active[i] = from.active[index];
+                }
+            }
+        }
+        retire(from, to.rules);
+    }
+
+    /**
+     * Det gamle punktet kan fortsatt være i bruk i en evaluering som pågår, men skal ikke sende flere alarmer
+     */
+    private void retire(AlertPoint point, AlertRule[] remaining) {
+        synchronized (point) {
+            point.released = true;
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < point.rules.length; i++) {
+                if (point.active[i] && indexOf(remaining, point.rules[i]) < 0) {
+                    point.active[i] = false;
+                    fire(point.rules[i], point, point.lastValue, false, now);
+                }
+            }
+        }
+    }
+
+    private static int indexOf(AlertRule[] rules, AlertRule rule) {
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i] == rule) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void fire(AlertRule rule, AlertPoint point, double value, boolean raised, long timestampMillis) {
+        String message = rule.getKind() == AlertKind.STUCK
+                ? String.format("value %s unchanged for more than %d s", value, rule.getDurationMillis() / 1000)
+                : String.format("value %s %s limit %s", value, rule.getKind(), rule.getLimit());
+        publish(new Alert(rule.getId(), rule.getKind(), point.object.getDeviceInstanceNumber(),
+                point.object.getObjectIdentifier(), point.object.getObjectName(), value, raised, timestampMillis, message));
+    }
+
+    private void publish(Alert alert) {
+        try {
+            listener.alert(alert);
+        } catch (Exception e) {
+            log.warn("Alert listener failed for rule {}: {}", alert.getRuleId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package no.messom.realestate.bacnet.alert;
+
+/**
+ * Typer alarmregler som støttes av {@link AlertEngine}
+ */
+public enum AlertKind {
+    /** Verdien er over grensen */
+    HIGH,
+    /** Verdien er under grensen */
+    LOW,
+    /** Endringen per sekund er større enn grensen (absoluttverdi) */
+    RATE,
+    /** Verdien har ikke endret seg på lengre enn angitt varighet */
+    STUCK,
+    /** Intrinsic event notification fra BACnet-enheten */
+    EVENT
+}
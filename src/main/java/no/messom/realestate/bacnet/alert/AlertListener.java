@@ -0,0 +1,8 @@
+package no.messom.realestate.bacnet.alert;
+
+/**
+ * Mottar alarmer når de utløses eller kvitteres
+ */
+public interface AlertListener {
+    void alert(Alert alert);
+}
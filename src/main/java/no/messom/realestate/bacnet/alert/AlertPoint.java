@@ -0,0 +1,37 @@
+package no.messom.realestate.bacnet.alert;
+
+import no.messom.realestate.bacnet.BacnetObject;
+
+/**
+ * Kompilerte regler og evalueringstilstand for ett objekt. Festes til {@link BacnetObject}
+ * slik at COV-stien slipper oppslag.
+ */
+public final class AlertPoint {
+    final BacnetObject object;
+    final AlertRule[] rules;
+    final boolean[] active;
+    double lastValue = Double.NaN;
+    long lastSampleMillis;
+    long lastChangeMillis;
+    // Settes når devicet er sluppet, så en evaluering som allerede har punktet ikke sender alarmer
+    boolean released;
+
+    AlertPoint(BacnetObject object, AlertRule[] rules) {
+        this.object = object;
+        this.rules = rules;
+        this.active = new boolean[rules.length];
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    public synchronized boolean isActive(String ruleId) {
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].getId().equals(ruleId)) {
+                return active[i];
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package no.messom.realestate.bacnet.alert;
+
+import no.messom.realestate.bacnet.BacnetObject;
+import no.messom.realestate.bacnet.ObjectSelector;
+
+/**
+ * En alarmregel fra konfigurasjonen. Regelen velger objekter med en {@link ObjectSelector},
+ * og evaluerer en verdi uten å allokere.
+ */
+public final class AlertRule {
+    private final String id;
+    private final AlertKind kind;
+    private final double limit;
+    private final long durationMillis;
+    private final ObjectSelector selector;
+
+    public AlertRule(String id, AlertKind kind, double limit, long durationMillis, ObjectSelector selector) {
+        if (kind == AlertKind.EVENT) {
+            throw new IllegalArgumentException("EVENT alerts come from the device and cannot be configured as rules");
+        }
+        if (kind == AlertKind.STUCK && durationMillis <= 0) {
+            throw new IllegalArgumentException("Rule " + id + ": stuck rules require a positive duration");
+        }
+        this.id = id;
+        this.kind = kind;
+        this.limit = limit;
+        this.durationMillis = durationMillis;
+        this.selector = selector;
+    }
+
+    public String getId() { return id; }
+    public AlertKind getKind() { return kind; }
+    public double getLimit() { return limit; }
+    public long getDurationMillis() { return durationMillis; }
+
+    /**
+     * Brukes ved kompilering, ikke på COV-stien
+     */
+    public boolean matches(BacnetObject object) {
+        return selector.matches(object);
+    }
+
+    /**
+     * Sjekker om regelen er brutt for en ny verdi. Tilstanden i {@code point} er fra forrige oppdatering.
+     */
+    boolean isViolated(AlertPoint point, double value, long timestampMillis) {
+        switch (kind) {
+            case HIGH:
+                return value > limit;
+            case LOW:
+                return value < limit;
+            case RATE:
+                if (point.lastSampleMillis == 0 || timestampMillis <= point.lastSampleMillis) {
+                    return false;
+                }
+                double perSecond = (value - point.lastValue) * 1000.0 / (timestampMillis - point.lastSampleMillis);
+                return Math.abs(perSecond) > limit;
+            case STUCK:
+                return isStuck(point, timestampMillis);
+            default:
+                return false;
+        }
+    }
+
+    boolean isStuck(AlertPoint point, long nowMillis) {
+        return point.lastChangeMillis != 0 && nowMillis - point.lastChangeMillis > durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AlertRule{%s, kind=%s, limit=%s, durationMillis=%d}", id, kind, limit, durationMillis);
+    }
+}
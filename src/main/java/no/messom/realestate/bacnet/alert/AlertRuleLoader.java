@@ -0,0 +1,102 @@
+package no.messom.realestate.bacnet.alert;
+
+import no.messom.realestate.bacnet.ObjectSelector;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Leser alarmregler fra en properties-fil. Hver regel har et eget prefiks {@code rule.<id>.}:
+ * <pre>
+ * rule.zone-high.kind=high
+ * rule.zone-high.limit=26.0
+ * rule.zone-high.objectType=analogValue
+ * rule.zone-high.name=.*Romtemp.*
+ *
+ * rule.av40250-rate.kind=rate
+ * rule.av40250-rate.limit=0.5
+ * rule.av40250-rate.object=analogValue:40250
+ *
+ * rule.stuck.kind=stuck
+ * rule.stuck.seconds=3600
+ * </pre>
+ * Objektutvalget leses med {@link ObjectSelector#fromProperties(Properties, String)}.
+ */
+public final class AlertRuleLoader {
+    private static final Logger log = getLogger(AlertRuleLoader.class);
+
+    public static final String RULES_FILE_PROPERTY = "bacnet.alert.rules";
+    public static final String DEFAULT_RULES_FILE = "alert-rules.properties";
+    private static final String PREFIX = "rule.";
+
+    private AlertRuleLoader() {
+    }
+
+    /**
+     * Leser reglene fra filen angitt med {@value #RULES_FILE_PROPERTY}, eller {@value #DEFAULT_RULES_FILE}.
+     * Manglende fil gir ingen regler.
+     */
+    public static List<AlertRule> loadConfigured() throws IOException {
+        Path path = Paths.get(System.getProperty(RULES_FILE_PROPERTY, DEFAULT_RULES_FILE));
+        if (!Files.isRegularFile(path)) {
+            log.info("No alert rules file found at {}, alerting disabled", path.toAbsolutePath());
+            return Collections.emptyList();
+        }
+        return load(path);
+    }
+
+    public static List<AlertRule> load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        List<AlertRule> rules = fromProperties(properties);
+        log.info("Loaded {} alert rules from {}", rules.size(), path.toAbsolutePath());
+        return rules;
+    }
+
+    public static List<AlertRule> fromProperties(Properties properties) {
+        TreeSet<String> ids = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX) && key.indexOf('.', PREFIX.length()) > 0) {
+                ids.add(key.substring(PREFIX.length(), key.indexOf('.', PREFIX.length())));
+            }
+        }
+
+        List<AlertRule> rules = new ArrayList<>();
+        for (String id : ids) {
+            rules.add(parseRule(id, properties));
+        }
+        return rules;
+    }
+
+    private static AlertRule parseRule(String id, Properties properties) {
+        String prefix = PREFIX + id + ".";
+        String kindValue = properties.getProperty(prefix + "kind");
+        if (kindValue == null) {
+            throw new IllegalArgumentException("Rule " + id + " is missing '" + prefix + "kind'");
+        }
+
+        AlertKind kind = AlertKind.valueOf(kindValue.trim().toUpperCase(Locale.ROOT));
+        double limit = Double.parseDouble(properties.getProperty(prefix + "limit", "NaN").trim());
+        long durationMillis = Long.parseLong(properties.getProperty(prefix + "seconds", "0").trim()) * 1000L;
+        if (kind != AlertKind.STUCK && Double.isNaN(limit)) {
+            throw new IllegalArgumentException("Rule " + id + " is missing '" + prefix + "limit'");
+        }
+
+        return new AlertRule(id, kind, limit, durationMillis, ObjectSelector.fromProperties(properties, prefix));
+    }
+}
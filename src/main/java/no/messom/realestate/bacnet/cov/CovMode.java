@@ -0,0 +1,27 @@
+package no.messom.realestate.bacnet.cov;
+
+import java.util.Locale;
+
+/**
+ * Om COV-notifikasjoner skal være bekreftet (ack per notifikasjon) eller ubekreftet.
+ * Ubekreftet halverer antall pakker, og tap oppdages i stedet av {@link CovSubscriptionManager}.
+ */
+public enum CovMode {
+    CONFIRMED,
+    UNCONFIRMED;
+
+    public static final String MODE_PROPERTY = "bacnet.cov.mode";
+
+    /**
+     * Leser {@code bacnet.cov.mode.<device>}, deretter {@code bacnet.cov.mode}. Standard er {@link #CONFIRMED}.
+     */
+    public static CovMode forDevice(int deviceInstanceNumber) {
+        String value = System.getProperty(MODE_PROPERTY + "." + deviceInstanceNumber,
+                System.getProperty(MODE_PROPERTY, CONFIRMED.name()));
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isConfirmed() {
+        return this == CONFIRMED;
+    }
+}
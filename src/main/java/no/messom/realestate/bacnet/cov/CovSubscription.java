@@ -0,0 +1,27 @@
+package no.messom.realestate.bacnet.cov;
+
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+/**
+ * Tilstand for ett COV-abonnement, brukt til å oppdage tapte notifikasjoner
+ */
+final class CovSubscription {
+    final RemoteDevice remoteDevice;
+    final ObjectIdentifier objectIdentifier;
+    final CovMode mode;
+    long subscribedMillis;
+    long lastNotificationMillis;
+    long lastTimeRemaining;
+    long timeRemainingMillis;
+    // Satt mens et abonnement sendes, da timeRemaining i notifikasjoner kan være både gammel og ny
+    boolean renewing;
+    boolean suspect;
+    boolean resubscribe;
+
+    CovSubscription(RemoteDevice remoteDevice, ObjectIdentifier objectIdentifier, CovMode mode) {
+        this.remoteDevice = remoteDevice;
+        this.objectIdentifier = objectIdentifier;
+        this.mode = mode;
+    }
+}
@@ -0,0 +1,289 @@
+package no.messom.realestate.bacnet.cov;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.service.confirmed.SubscribeCOVRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.ErrorClassAndCode;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Boolean;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import com.serotonin.bacnet4j.util.PropertyReferences;
+import com.serotonin.bacnet4j.util.PropertyValues;
+import com.serotonin.bacnet4j.util.RequestUtils;
+import no.messom.realestate.bacnet.BacnetObject;
+import no.messom.realestate.bacnet.BacnetObjectRepository;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Holder COV-abonnementer per device, fornyer dem før de utløper og oppdager tapte ubekreftede notifikasjoner.
+ * Et abonnement regnes som mistenkelig når timeRemaining avviker fra forventet nedtelling, eller når det
+ * har vært stille lenger enn forventet. Mistenkelige objekter leses på nytt i én samlet forespørsel per device.
+ */
+public class CovSubscriptionManager {
+    private static final Logger log = getLogger(CovSubscriptionManager.class);
+
+    private static final int SUBSCRIBER_PROCESS_ID = 1;
+    private static final long TIME_REMAINING_TOLERANCE = 30; // seconds
+
+    private final LocalDevice localDevice;
+    private final BacnetObjectRepository repository;
+    private final int lifetimeSeconds;
+    private final long silenceMillis;
+    private final Map<Integer, Map<ObjectIdentifier, CovSubscription>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param lifetimeSeconds levetid for hvert abonnement, fornyes etter halve tiden
+     * @param silenceSeconds  hvor lenge et ubekreftet abonnement kan være stille før objektet leses på nytt
+     */
+    public CovSubscriptionManager(LocalDevice localDevice, BacnetObjectRepository repository,
+                                  int lifetimeSeconds, int silenceSeconds) {
+        this.localDevice = localDevice;
+        this.repository = repository;
+        this.lifetimeSeconds = lifetimeSeconds;
+        this.silenceMillis = silenceSeconds * 1000L;
+    }
+
+    /**
+     * Abonnerer med modusen som er konfigurert for devicet, se {@link CovMode#forDevice(int)}
+     */
+    public CovMode subscribe(RemoteDevice remoteDevice, ObjectIdentifier objectId) throws BACnetException {
+        CovMode mode = CovMode.forDevice(remoteDevice.getInstanceNumber());
+        CovSubscription subscription = new CovSubscription(remoteDevice, objectId, mode);
+        send(subscription, lifetimeSeconds);
+        subscriptions.computeIfAbsent(remoteDevice.getInstanceNumber(), id -> new ConcurrentHashMap<>())
+                .put(objectId, subscription);
+        log.info("Subscribed to {} on device {} with {} notifications",
+                objectId, remoteDevice.getInstanceNumber(), mode);
+        return mode;
+    }
+
+    public void unsubscribe(int deviceInstanceNumber, ObjectIdentifier objectId) throws BACnetException {
+        Map<ObjectIdentifier, CovSubscription> deviceSubscriptions = subscriptions.get(deviceInstanceNumber);
+        if (deviceSubscriptions == null) {
+            return;
+        }
+        synchronized (deviceSubscriptions) {
+            CovSubscription subscription = deviceSubscriptions.remove(objectId);
+            if (subscription != null) {
+                // lifetime = 0 betyr avmelding
+                send(subscription, 0);
+            }
+        }
+    }
+
+    /**
+     * Avslutter alle abonnementer på devicet. Låsen på devicets abonnementer holdes mens avmeldingene sendes,
+     * så en fornyelse som pågår enten er ferdig før, eller ser at devicet ikke lenger er registrert.
+     */
+    public void unsubscribeDevice(int deviceInstanceNumber) {
+        Map<ObjectIdentifier, CovSubscription> deviceSubscriptions = subscriptions.get(deviceInstanceNumber);
+        if (deviceSubscriptions == null) {
+            return;
+        }
+        synchronized (deviceSubscriptions) {
+            subscriptions.remove(deviceInstanceNumber, deviceSubscriptions);
+            unsubscribe(deviceSubscriptions);
+        }
+    }
+
+    public void unsubscribeAll() {
+        for (Integer deviceInstanceNumber : subscriptions.keySet()) {
+            unsubscribeDevice(deviceInstanceNumber);
+        }
+    }
+
+    private void unsubscribe(Map<ObjectIdentifier, CovSubscription> deviceSubscriptions) {
+        for (CovSubscription subscription : deviceSubscriptions.values()) {
+            try {
+                send(subscription, 0);
+            } catch (Exception e) {
+                log.warn("Error unsubscribing from {} on device {}: {}", subscription.objectIdentifier,
+                        subscription.remoteDevice.getInstanceNumber(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Kalles for hver COV-notifikasjon, bekreftet eller ubekreftet
+     */
+    public void notificationReceived(ObjectIdentifier initiatingDevice, ObjectIdentifier monitoredObjectIdentifier,
+                                     UnsignedInteger timeRemaining) {
+        Map<ObjectIdentifier, CovSubscription> deviceSubscriptions =
+                subscriptions.get(initiatingDevice.getInstanceNumber());
+        CovSubscription subscription = deviceSubscriptions != null
+                ? deviceSubscriptions.get(monitoredObjectIdentifier) : null;
+        if (subscription == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (subscription) {
+            if (timeRemaining != null) {
+                long remaining = timeRemaining.longValue();
+                long expected = subscription.lastTimeRemaining - (now - subscription.timeRemainingMillis) / 1000;
+                if (subscription.mode == CovMode.UNCONFIRMED && !subscription.renewing
+                        && Math.abs(remaining - expected) > TIME_REMAINING_TOLERANCE) {
+                    log.info("timeRemaining for {} on device {} jumped from expected {} to {}, scheduling re-read",
+                            monitoredObjectIdentifier, initiatingDevice.getInstanceNumber(), expected, remaining);
+                    subscription.suspect = true;
+                    subscription.resubscribe = true;
+                }
+                subscription.lastTimeRemaining = remaining;
+                subscription.timeRemainingMillis = now;
+            }
+            subscription.lastNotificationMillis = now;
+        }
+    }
+
+    /**
+     * Fornyer abonnementer og leser mistenkelige objekter på nytt. Kjøres periodisk.
+     */
+    public void checkSubscriptions() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Map<ObjectIdentifier, CovSubscription>> entry : subscriptions.entrySet()) {
+            int deviceInstanceNumber = entry.getKey();
+            Map<ObjectIdentifier, CovSubscription> deviceSubscriptions = entry.getValue();
+            List<CovSubscription> toRead = new ArrayList<>();
+            for (CovSubscription subscription : deviceSubscriptions.values()) {
+                synchronized (subscription) {
+                    if (now - subscription.subscribedMillis > lifetimeSeconds * 500L) {
+                        subscription.resubscribe = true;
+                    }
+                    if (subscription.mode == CovMode.UNCONFIRMED
+                            && (subscription.suspect || now - subscription.lastNotificationMillis > silenceMillis)) {
+                        toRead.add(subscription);
+                    }
+                }
+            }
+
+            if (!toRead.isEmpty()) {
+                try {
+                    reRead(toRead);
+                } catch (Exception e) {
+                    log.warn("Failed to re-read {} objects on device {}: {}", toRead.size(),
+                            toRead.get(0).remoteDevice.getInstanceNumber(), e.getMessage());
+                }
+            }
+            renew(deviceInstanceNumber, deviceSubscriptions);
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Leser present value for alle objektene i én batch. Avviker verdien fra den vi har, har vi mistet
+     * en notifikasjon, og abonnementet fornyes i tilfelle devicet har mistet det.
+     */
+    private void reRead(List<CovSubscription> toRead) throws BACnetException {
+        RemoteDevice remoteDevice = toRead.get(0).remoteDevice;
+        PropertyReferences references = new PropertyReferences();
+        for (CovSubscription subscription : toRead) {
+            references.add(subscription.objectIdentifier, PropertyIdentifier.presentValue);
+        }
+
+        PropertyValues values = RequestUtils.readProperties(localDevice, remoteDevice, references, false, null);
+        long now = System.currentTimeMillis();
+        int missed = 0;
+        for (CovSubscription subscription : toRead) {
+            Encodable value = values.getNoErrorCheck(subscription.objectIdentifier, PropertyIdentifier.presentValue);
+            if (value == null || value instanceof ErrorClassAndCode) {
+                log.debug("Re-read of {} on device {} failed: {}", subscription.objectIdentifier,
+                        remoteDevice.getInstanceNumber(), value);
+                continue;
+            }
+
+            Object previous = repository.findById(remoteDevice.getInstanceNumber(), subscription.objectIdentifier)
+                    .map(BacnetObject::getPresentValue)
+                    .orElse(null);
+            boolean changed = !Objects.equals(previous, value);
+            if (changed) {
+                missed++;
+                repository.updatePresentValue(remoteDevice.getInstanceNumber(), subscription.objectIdentifier, value);
+            }
+            synchronized (subscription) {
+                subscription.suspect = false;
+                subscription.lastNotificationMillis = now;
+                if (changed) {
+                    subscription.resubscribe = true;
+                }
+            }
+        }
+
+        log.info("Re-read {} objects on device {}, {} had missed updates",
+                toRead.size(), remoteDevice.getInstanceNumber(), missed);
+    }
+
+    /**
+     * Fornyer under låsen på devicets abonnementer, så et device som er sluppet med {@link #unsubscribeDevice(int)}
+     * ikke blir abonnert på nytt av en fornyelse som startet før avmeldingen
+     */
+    private void renew(int deviceInstanceNumber, Map<ObjectIdentifier, CovSubscription> deviceSubscriptions) {
+        synchronized (deviceSubscriptions) {
+            if (subscriptions.get(deviceInstanceNumber) != deviceSubscriptions) {
+                return;
+            }
+            for (CovSubscription subscription : deviceSubscriptions.values()) {
+                synchronized (subscription) {
+                    if (!subscription.resubscribe) {
+                        continue;
+                    }
+                    subscription.resubscribe = false;
+                }
+                try {
+                    send(subscription, lifetimeSeconds);
+                } catch (BACnetException e) {
+                    log.warn("Failed to renew COV subscription for {} on device {}: {}", subscription.objectIdentifier,
+                            subscription.remoteDevice.getInstanceNumber(), e.getMessage());
+                    synchronized (subscription) {
+                        subscription.resubscribe = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void send(CovSubscription subscription, int lifetime) throws BACnetException {
+        SubscribeCOVRequest request = new SubscribeCOVRequest(
+                new UnsignedInteger(SUBSCRIBER_PROCESS_ID),
+                subscription.objectIdentifier,
+                subscription.mode.isConfirmed() ? Boolean.TRUE : Boolean.FALSE,
+                new UnsignedInteger(lifetime)
+        );
+        // Forventet nedtelling settes før sending, siden notifikasjoner med ny timeRemaining kan komme
+        // før svaret på abonnementet. Mens fornyelsen pågår kan de også ha gammel nedtelling.
+        synchronized (subscription) {
+            subscription.renewing = true;
+            resetCountdown(subscription, lifetime, System.currentTimeMillis());
+        }
+        try {
+            localDevice.send(subscription.remoteDevice, request).get();
+            synchronized (subscription) {
+                resetCountdown(subscription, lifetime, System.currentTimeMillis());
+            }
+        } finally {
+            synchronized (subscription) {
+                subscription.renewing = false;
+            }
+        }
+    }
+
+    private static void resetCountdown(CovSubscription subscription, int lifetime, long now) {
+        subscription.subscribedMillis = now;
+        subscription.lastNotificationMillis = now;
+        subscription.lastTimeRemaining = lifetime;
+        subscription.timeRemainingMillis = now;
+    }
+}
@@ -0,0 +1,82 @@
+package no.messom.realestate.bacnet.shard;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Medlemskap via lease-filer i en delt katalog. Hvert medlem skriver {@code <medlem>.lease} med
+ * tidspunktet for siste heartbeat, og et medlem regnes som levende så lenge leasen ikke er utløpt.
+ */
+public class LeaseDirectory {
+    private static final Logger log = getLogger(LeaseDirectory.class);
+
+    private static final String SUFFIX = ".lease";
+    private static final int STALE_LEASE_FACTOR = 10;
+
+    private final Path directory;
+    private final long leaseMillis;
+
+    public LeaseDirectory(Path directory, long leaseMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * Skriver til en midlertidig fil og flytter den på plass, så andre aldri leser en halvskrevet lease
+     */
+    public void renew(String memberId, long nowMillis) throws IOException {
+        Path lease = directory.resolve(memberId + SUFFIX);
+        Path temp = directory.resolve(memberId + SUFFIX + ".tmp");
+        Files.writeString(temp, Long.toString(nowMillis), StandardCharsets.UTF_8);
+        Files.move(temp, lease, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void release(String memberId) throws IOException {
+        Files.deleteIfExists(directory.resolve(memberId + SUFFIX));
+    }
+
+    /**
+     * Leaser som har vært utløpt lenge fjernes, så katalogen ikke vokser med døde prosesser
+     */
+    public Set<String> liveMembers(long nowMillis) throws IOException {
+        Set<String> members = new TreeSet<>();
+        try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path lease : leases) {
+                String fileName = lease.getFileName().toString();
+                String memberId = fileName.substring(0, fileName.length() - SUFFIX.length());
+                long heartbeat = readHeartbeat(lease);
+                long age = nowMillis - heartbeat;
+                if (age <= leaseMillis) {
+                    members.add(memberId);
+                } else if (age > leaseMillis * STALE_LEASE_FACTOR) {
+                    log.info("Removing stale lease for member {}", memberId);
+                    Files.deleteIfExists(lease);
+                }
+            }
+        }
+        return members;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static long readHeartbeat(Path lease) {
+        try {
+            return Long.parseLong(Files.readString(lease, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            // Filen kan være slettet mellom listing og lesing
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package no.messom.realestate.bacnet.shard;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Fordeler devicene mellom flere subscriber-prosesser uten ekstern koordinator. Ved hver heartbeat
+ * fornyes egen lease, levende medlemmer leses fra {@link LeaseDirectory}, og eierskap beregnes med
+ * {@link ConsistentHashRing}. Devicer som ikke lenger er våre slippes med en gang, mens nye devicer
+ * overtas ett og ett med et fast mellomrom, så en død prosess ikke gir en storm av nye abonnementer.
+ * Får ikke prosessen fornyet sin egen lease i tide, slipper den alle devicene, siden de andre medlemmene
+ * da regner den som død og overtar dem.
+ */
+public class ShardCoordinator {
+    private static final Logger log = getLogger(ShardCoordinator.class);
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final LeaseDirectory leases;
+    private final String memberId;
+    private final List<Integer> devices;
+    private final ShardListener listener;
+    private final long leaseMillis;
+    private final long staggerMillis;
+    // Devicer vi skal eie ifølge siste heartbeat, og devicer som faktisk er overtatt
+    private final Set<Integer> owned = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> acquired = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shard-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ScheduledExecutorService handover = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shard-handover");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Set<String> members = Set.of();
+    private long lastRenewedMillis;
+
+    /**
+     * @param leaseMillis   hvor lenge en lease gjelder uten fornyelse. Heartbeat går hver tredjedel av dette.
+     * @param staggerMillis mellomrom mellom overtakelse av hvert nytt device
+     */
+    public ShardCoordinator(LeaseDirectory leases, String memberId, List<Integer> devices, ShardListener listener,
+                            long leaseMillis, long staggerMillis) {
+        this.leases = leases;
+        this.memberId = memberId;
+        this.devices = List.copyOf(devices);
+        this.listener = listener;
+        this.leaseMillis = leaseMillis;
+        this.staggerMillis = staggerMillis;
+    }
+
+    public void start() {
+        log.info("Starting shard member {} with {} devices, leases in {}",
+                memberId, devices.size(), leases.getDirectory().toAbsolutePath());
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, 0, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Slipper alle devicer og fjerner leasen, så de andre medlemmene overtar ved neste heartbeat
+     */
+    public void stop() {
+        heartbeat.shutdownNow();
+        handover.shutdownNow();
+        for (Integer device : List.copyOf(acquired)) {
+            release(device);
+        }
+        owned.clear();
+        try {
+            leases.release(memberId);
+        } catch (IOException e) {
+            log.warn("Failed to remove lease for member {}: {}", memberId, e.getMessage());
+        }
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    public Set<Integer> getAcquiredDevices() {
+        return Set.copyOf(acquired);
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        // Heartbeat kan ha stått stille, for eksempel under en lang GC-pause, og leasen er da utløpt
+        boolean expired = lastRenewedMillis > 0 && now - lastRenewedMillis > leaseMillis;
+        if (expired) {
+            fence("lease expired " + (now - lastRenewedMillis) + " ms after last renewal");
+        }
+        try {
+            leases.renew(memberId, now);
+            lastRenewedMillis = now;
+        } catch (Exception e) {
+            fence("failed to renew lease: " + e.getMessage());
+            return;
+        }
+        if (expired) {
+            // De andre medlemmene kan fortsatt eie devicene våre, så eierskap beregnes først ved neste heartbeat
+            return;
+        }
+
+        try {
+            Set<String> live = leases.liveMembers(now);
+            live.add(memberId);
+            if (!live.equals(members)) {
+                log.info("Shard members changed: {}", live);
+                members = Set.copyOf(live);
+            }
+
+            ConsistentHashRing ring = new ConsistentHashRing(live, VIRTUAL_NODES);
+            List<Integer> toAcquire = new ArrayList<>();
+            for (Integer device : devices) {
+                boolean ours = memberId.equals(ring.owner(device));
+                if (ours && owned.add(device)) {
+                    toAcquire.add(device);
+                } else if (!ours && owned.remove(device)) {
+                    handover.execute(() -> release(device));
+                }
+            }
+
+            for (int i = 0; i < toAcquire.size(); i++) {
+                Integer device = toAcquire.get(i);
+                handover.schedule(() -> acquire(device), i * staggerMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception e) {
+            log.warn("Shard heartbeat failed for member {}: {}", memberId, e.getMessage());
+        }
+    }
+
+    /**
+     * Slipper alle devicer uten å vente på ny beregning av eierskap, så to prosesser ikke abonnerer
+     * på og skriver til samme device
+     */
+    private void fence(String reason) {
+        members = Set.of();
+        if (owned.isEmpty() && acquired.isEmpty()) {
+            log.warn("Member {} {}", memberId, reason);
+            return;
+        }
+        log.warn("Member {} {}, releasing {} devices", memberId, reason, acquired.size());
+        owned.clear();
+        for (Integer device : List.copyOf(acquired)) {
+            handover.execute(() -> release(device));
+        }
+    }
+
+    private void acquire(Integer device) {
+        // Eierskapet kan ha endret seg mens overtakelsen ventet
+        if (!owned.contains(device) || acquired.contains(device)) {
+            return;
+        }
+        try {
+            log.info("Member {} acquiring device {}", memberId, device);
+            listener.deviceAcquired(device);
+            acquired.add(device);
+            if (!owned.contains(device)) {
+                // Leasen gikk tapt mens devicet ble overtatt
+                release(device);
+            }
+        } catch (Exception e) {
+            log.warn("Member {} failed to acquire device {}, retrying on next heartbeat: {}",
+                    memberId, device, e.getMessage());
+            owned.remove(device);
+        }
+    }
+
+    private void release(Integer device) {
+        if (!acquired.remove(device)) {
+            return;
+        }
+        try {
+            log.info("Member {} releasing device {}", memberId, device);
+            listener.deviceReleased(device);
+        } catch (Exception e) {
+            log.warn("Member {} failed to release device {}: {}", memberId, device, e.getMessage());
+        }
+    }
+}
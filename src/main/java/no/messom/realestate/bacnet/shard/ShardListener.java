@@ -0,0 +1,14 @@
+package no.messom.realestate.bacnet.shard;
+
+/**
+ * Varsles når denne prosessen overtar eller gir fra seg et device
+ */
+public interface ShardListener {
+
+    /**
+     * Kalles på koordinatorens overtakelsestråd. Et unntak betyr at overtakelsen prøves igjen ved neste heartbeat.
+     */
+    void deviceAcquired(int deviceInstanceNumber) throws Exception;
+
+    void deviceReleased(int deviceInstanceNumber) throws Exception;
+}
@@ -0,0 +1,76 @@
+package no.messom.realestate.bacnet.trend;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Skriver hver trendlogg til en egen CSV-fil ({@code sekvensnummer,epoch millis,verdi}) med navn
+ * {@code <device>-<objekttype>-<instans>.csv}
+ */
+public class FileTimeSeriesStore implements TimeSeriesStore {
+    private final Path directory;
+    private final Map<String, Writer> writers = new HashMap<>();
+
+    public FileTimeSeriesStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public synchronized void append(int deviceInstanceNumber, ObjectIdentifier trendLog, long sequenceNumber,
+                                    long timestampMillis, double value) throws IOException {
+        String series = seriesName(deviceInstanceNumber, trendLog);
+        Writer writer = writers.get(series);
+        if (writer == null) {
+            writer = Files.newBufferedWriter(directory.resolve(series + ".csv"), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            writers.put(series, writer);
+        }
+
+        writer.write(Long.toString(sequenceNumber));
+        writer.write(',');
+        writer.write(Long.toString(timestampMillis));
+        writer.write(',');
+        writer.write(Double.toString(value));
+        writer.write('\n');
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (Writer writer : writers.values()) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close(int deviceInstanceNumber, ObjectIdentifier trendLog) throws IOException {
+        Writer writer = writers.remove(seriesName(deviceInstanceNumber, trendLog));
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Writer writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    static String seriesName(int deviceInstanceNumber, ObjectIdentifier trendLog) {
+        return deviceInstanceNumber + "-" + trendLog.getObjectType().intValue() + "-" + trendLog.getInstanceNumber();
+    }
+}
@@ -0,0 +1,26 @@
+package no.messom.realestate.bacnet.trend;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.io.IOException;
+
+/**
+ * Lokal lagring av tidsserier hentet fra trendlogger på enhetene
+ */
+public interface TimeSeriesStore {
+
+    void append(int deviceInstanceNumber, ObjectIdentifier trendLog, long sequenceNumber,
+                long timestampMillis, double value) throws IOException;
+
+    /**
+     * Kalles etter hver del av en backfill, før lesepekeren lagres
+     */
+    void flush() throws IOException;
+
+    /**
+     * Kalles når en backfill av trendloggen er ferdig. Serien åpnes igjen ved neste {@link #append}.
+     */
+    void close(int deviceInstanceNumber, ObjectIdentifier trendLog) throws IOException;
+
+    void close() throws IOException;
+}
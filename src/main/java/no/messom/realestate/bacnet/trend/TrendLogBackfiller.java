@@ -0,0 +1,243 @@
+package no.messom.realestate.bacnet.trend;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadPropertyAck;
+import com.serotonin.bacnet4j.service.acknowledgement.ReadRangeAck;
+import com.serotonin.bacnet4j.service.confirmed.ReadPropertyRequest;
+import com.serotonin.bacnet4j.service.confirmed.ReadRangeRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.DateTime;
+import com.serotonin.bacnet4j.type.constructed.LogRecord;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.SignedInteger;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import no.messom.realestate.bacnet.PresentValues;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Henter historikk fra trendlogger på enheten med ReadRange og skriver den til en {@link TimeSeriesStore}.
+ * Bufferet leses i deler som passer i én APDU, fra sekvensnummeret etter siste lagrede peker,
+ * eller fra eldste record i bufferet hvis pekeren mangler eller er overskrevet.
+ * All lesing går på én tråd med lav prioritet og med pause mellom delene, så live COV-trafikk ikke forstyrres.
+ */
+public class TrendLogBackfiller {
+    private static final Logger log = getLogger(TrendLogBackfiller.class);
+
+    // Omtrentlig størrelse på en ReadRange-ack uten records, og på én LogRecord med tall-verdi
+    private static final int RESPONSE_OVERHEAD = 32;
+    private static final int RECORD_SIZE = 24;
+    private static final int MAX_RECORDS_PER_CHUNK = 200;
+    private static final long CHUNK_PAUSE_MILLIS = 250;
+
+    // Choice-tagger for log-datum i BACnet LogRecord
+    private static final int DATUM_BOOLEAN = 1;
+    private static final int DATUM_REAL = 2;
+    private static final int DATUM_ENUMERATED = 3;
+    private static final int DATUM_UNSIGNED = 4;
+    private static final int DATUM_SIGNED = 5;
+
+    private final LocalDevice localDevice;
+    private final TimeSeriesStore store;
+    private final TrendLogCursors cursors;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trendlog-backfill");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public TrendLogBackfiller(LocalDevice localDevice, TimeSeriesStore store, TrendLogCursors cursors) {
+        this.localDevice = localDevice;
+        this.store = store;
+        this.cursors = cursors;
+    }
+
+    /**
+     * Fortsetter fra lagret peker for hver trendlogg. Trendlogger som ikke er lest før leses fra starten av bufferet.
+     *
+     * @return antall records som ble lagret
+     */
+    public CompletableFuture<Long> backfill(RemoteDevice remoteDevice, List<ObjectIdentifier> trendLogs) {
+        return backfillSince(remoteDevice, trendLogs, 0);
+    }
+
+    /**
+     * Som {@link #backfill(RemoteDevice, List)}, men trendlogger uten lagret peker leses fra
+     * {@code sinceMillis} med ReadRange by time
+     */
+    public CompletableFuture<Long> backfillSince(RemoteDevice remoteDevice, List<ObjectIdentifier> trendLogs,
+                                                 long sinceMillis) {
+        return CompletableFuture.supplyAsync(() -> {
+            long total = 0;
+            for (ObjectIdentifier trendLog : trendLogs) {
+                try {
+                    total += backfillTrendLog(remoteDevice, trendLog, sinceMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    log.warn("Backfill of {} on device {} failed: {}",
+                            trendLog, remoteDevice.getInstanceNumber(), e.getMessage());
+                }
+            }
+            log.info("Trend log backfill completed for device {} - {} records from {} trend logs",
+                    remoteDevice.getInstanceNumber(), total, trendLogs.size());
+            return total;
+        }, executor);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Filen til serien lukkes etter hver trendlogg, så en enhet med mange trendlogger ikke holder
+     * én filhandle åpen per trendlogg til prosessen stopper
+     */
+    private long backfillTrendLog(RemoteDevice remoteDevice, ObjectIdentifier trendLog, long sinceMillis)
+            throws Exception {
+        int deviceId = remoteDevice.getInstanceNumber();
+        try {
+            return readTrendLog(remoteDevice, trendLog, sinceMillis);
+        } finally {
+            try {
+                store.close(deviceId, trendLog);
+            } catch (IOException e) {
+                log.warn("Failed to close series of {} on device {}: {}", trendLog, deviceId, e.getMessage());
+            }
+        }
+    }
+
+    private long readTrendLog(RemoteDevice remoteDevice, ObjectIdentifier trendLog, long sinceMillis)
+            throws Exception {
+        int deviceId = remoteDevice.getInstanceNumber();
+        int chunkSize = recordsPerChunk(remoteDevice);
+        long cursor = cursors.get(deviceId, trendLog);
+        long stored = 0;
+
+        TrendLogRange range = readRange(remoteDevice, trendLog);
+        if (range == null) {
+            log.info("Trend log {} on device {} is empty, nothing to backfill", trendLog, deviceId);
+            return 0;
+        }
+        cursor = startCursor(deviceId, trendLog, cursor, range, sinceMillis);
+        log.info("Backfilling {} on device {} from sequence {} to {} in chunks of {}",
+                trendLog, deviceId, cursor + 1, range.newest, chunkSize);
+
+        while (!Thread.currentThread().isInterrupted()) {
+            boolean byTime = TrendLogRange.readsByTime(cursor, sinceMillis);
+            ReadRangeRequest request = byTime
+                    ? new ReadRangeRequest(trendLog, PropertyIdentifier.logBuffer, null,
+                            new ReadRangeRequest.ByTime(new DateTime(sinceMillis), new SignedInteger(chunkSize)))
+                    : new ReadRangeRequest(trendLog, PropertyIdentifier.logBuffer, null,
+                            new ReadRangeRequest.BySequenceNumber(new UnsignedInteger(cursor + 1),
+                                    new SignedInteger(chunkSize)));
+
+            ReadRangeAck ack = (ReadRangeAck) localDevice.send(remoteDevice, request).get();
+            if (ack.getItemCount().intValue() == 0) {
+                if (byTime || range.isRead(cursor)) {
+                    break;
+                }
+                // Bufferet kan ha rullet forbi pekeren mens vi leste, så vi henter grensene på nytt
+                TrendLogRange current = readRange(remoteDevice, trendLog);
+                if (current == null || current.isRead(cursor) || !current.isOverwritten(cursor)) {
+                    log.warn("Empty ReadRange response for {} on device {} at sequence {} (newest {}), stopping",
+                            trendLog, deviceId, cursor + 1, current != null ? current.newest : range.newest);
+                    break;
+                }
+                range = current;
+                cursor = startCursor(deviceId, trendLog, cursor, range, sinceMillis);
+                continue;
+            }
+
+            long sequenceNumber = ack.getFirstSequenceNumber() != null
+                    ? ack.getFirstSequenceNumber().longValue()
+                    : cursor + 1;
+            for (Encodable item : ack.getItemData()) {
+                if (item instanceof LogRecord record) {
+                    double value = toValue(record);
+                    if (!Double.isNaN(value)) {
+                        store.append(deviceId, trendLog, sequenceNumber,
+                                record.getTimestamp().getGC().getTimeInMillis(), value);
+                        stored++;
+                    }
+                }
+                sequenceNumber++;
+            }
+
+            // Lagrer pekeren først når dataene er skrevet, så en avbrutt backfill aldri hopper over records
+            cursor = sequenceNumber - 1;
+            store.flush();
+            cursors.put(deviceId, trendLog, cursor);
+            cursors.save();
+
+            if (!ack.getResultFlags().isMoreItems()) {
+                break;
+            }
+            Thread.sleep(CHUNK_PAUSE_MILLIS);
+        }
+
+        log.info("Backfilled {} records from {} on device {}, cursor at {}", stored, trendLog, deviceId, cursor);
+        return stored;
+    }
+
+    private static long startCursor(int deviceId, ObjectIdentifier trendLog, long cursor, TrendLogRange range,
+                                    long sinceMillis) {
+        long start = range.startCursor(cursor, sinceMillis);
+        if (range.isRestarted(cursor)) {
+            log.warn("Sequence numbers of {} on device {} restarted (cursor {}, newest {}), reading from oldest record",
+                    trendLog, deviceId, cursor, range.newest);
+        } else if (cursor > 0 && start != cursor) {
+            log.warn("Records {}-{} of {} on device {} were overwritten before they were backfilled, " +
+                    "continuing from {}", cursor + 1, range.oldest - 1, trendLog, deviceId, range.oldest);
+        }
+        return start;
+    }
+
+    private TrendLogRange readRange(RemoteDevice remoteDevice, ObjectIdentifier trendLog) throws Exception {
+        return TrendLogRange.of(readUnsigned(remoteDevice, trendLog, PropertyIdentifier.recordCount),
+                readUnsigned(remoteDevice, trendLog, PropertyIdentifier.totalRecordCount));
+    }
+
+    private long readUnsigned(RemoteDevice remoteDevice, ObjectIdentifier objectId, PropertyIdentifier propertyId)
+            throws Exception {
+        ReadPropertyAck ack = (ReadPropertyAck) localDevice.send(remoteDevice,
+                new ReadPropertyRequest(objectId, propertyId)).get();
+        return ((UnsignedInteger) ack.getValue()).longValue();
+    }
+
+    /**
+     * Statusmeldinger, feil og tidsendringer i loggen har ingen verdi og hoppes over
+     */
+    private static double toValue(LogRecord record) {
+        switch (record.getChoiceType()) {
+            case DATUM_BOOLEAN:
+                return PresentValues.toDouble(record.getBoolean());
+            case DATUM_REAL:
+                return PresentValues.toDouble(record.getReal());
+            case DATUM_ENUMERATED:
+                return PresentValues.toDouble(record.getEnumerated());
+            case DATUM_UNSIGNED:
+                return PresentValues.toDouble(record.getUnsignedInteger());
+            case DATUM_SIGNED:
+                return PresentValues.toDouble(record.getSignedInteger());
+            default:
+                return Double.NaN;
+        }
+    }
+
+    private static int recordsPerChunk(RemoteDevice remoteDevice) {
+        int records = (remoteDevice.getMaxAPDULengthAccepted() - RESPONSE_OVERHEAD) / RECORD_SIZE;
+        return Math.max(1, Math.min(records, MAX_RECORDS_PER_CHUNK));
+    }
+}
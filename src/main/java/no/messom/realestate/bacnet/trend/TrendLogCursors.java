@@ -0,0 +1,56 @@
+package no.messom.realestate.bacnet.trend;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Siste leste sekvensnummer per trendlogg, lagret i en properties-fil slik at backfill
+ * kan fortsette der den slapp etter en omstart
+ */
+public class TrendLogCursors {
+    private final Path file;
+    private final Properties cursors = new Properties();
+
+    public TrendLogCursors(Path file) throws IOException {
+        this.file = file;
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                cursors.load(reader);
+            }
+        }
+    }
+
+    /**
+     * @return siste lagrede sekvensnummer, eller 0 hvis trendloggen ikke er lest før
+     */
+    public synchronized long get(int deviceInstanceNumber, ObjectIdentifier trendLog) {
+        return Long.parseLong(cursors.getProperty(key(deviceInstanceNumber, trendLog), "0"));
+    }
+
+    public synchronized void put(int deviceInstanceNumber, ObjectIdentifier trendLog, long sequenceNumber) {
+        cursors.setProperty(key(deviceInstanceNumber, trendLog), Long.toString(sequenceNumber));
+    }
+
+    /**
+     * Skriver til en midlertidig fil og flytter den på plass, så filen aldri blir halvskrevet
+     */
+    public synchronized void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            cursors.store(writer, "Last sequence number read per trend log");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String key(int deviceInstanceNumber, ObjectIdentifier trendLog) {
+        return FileTimeSeriesStore.seriesName(deviceInstanceNumber, trendLog);
+    }
+}
@@ -0,0 +1,71 @@
+package no.messom.realestate.bacnet.trend;
+
+/**
+ * Sekvensnumrene som ligger i ringbufferet til en trendlogg, og regnestykkene for hvor en backfill
+ * skal fortsette. Pekeren er sekvensnummeret til siste lagrede record, eller 0 hvis ingenting er lest.
+ */
+final class TrendLogRange {
+    final long oldest;
+    final long newest;
+
+    TrendLogRange(long oldest, long newest) {
+        this.oldest = oldest;
+        this.newest = newest;
+    }
+
+    /**
+     * Sekvensnummeret til nyeste record er Total_Record_Count, og bufferet holder Record_Count records bakover
+     * fra den. Returnerer null hvis bufferet er tomt.
+     */
+    static TrendLogRange of(long recordCount, long totalRecordCount) {
+        if (recordCount == 0 || totalRecordCount == 0) {
+            return null;
+        }
+        return new TrendLogRange(Math.max(1, totalRecordCount - recordCount + 1), totalRecordCount);
+    }
+
+    /**
+     * Første lesing av en trendlogg med starttidspunkt går by time i stedet for by sequence number
+     */
+    static boolean readsByTime(long cursor, long sinceMillis) {
+        return cursor == 0 && sinceMillis > 0;
+    }
+
+    /**
+     * Pekeren er forbi nyeste record, så enheten har startet sekvensnumrene på nytt
+     */
+    boolean isRestarted(long cursor) {
+        return cursor > newest;
+    }
+
+    /**
+     * Recorden etter pekeren er allerede overskrevet i ringbufferet
+     */
+    boolean isOverwritten(long cursor) {
+        return cursor + 1 < oldest;
+    }
+
+    boolean isRead(long cursor) {
+        return cursor >= newest;
+    }
+
+    /**
+     * Pekeren neste del skal leses etter. Etter omstart leses bufferet fra starten, og er recordene etter
+     * pekeren overskrevet, fortsetter vi fra eldste record. Første lesing by time styres av tidspunktet og
+     * flyttes ikke.
+     */
+    long startCursor(long cursor, long sinceMillis) {
+        if (isRestarted(cursor)) {
+            cursor = 0;
+        }
+        if (readsByTime(cursor, sinceMillis) || !isOverwritten(cursor)) {
+            return cursor;
+        }
+        return oldest - 1;
+    }
+
+    @Override
+    public String toString() {
+        return oldest + "-" + newest;
+    }
+}
@@ -0,0 +1,304 @@
+package no.messom.realestate.bacnet.write;
+
+import com.serotonin.bacnet4j.LocalDevice;
+import com.serotonin.bacnet4j.RemoteDevice;
+import com.serotonin.bacnet4j.exception.AbortAPDUException;
+import com.serotonin.bacnet4j.exception.BACnetException;
+import com.serotonin.bacnet4j.exception.BACnetTimeoutException;
+import com.serotonin.bacnet4j.exception.ErrorAPDUException;
+import com.serotonin.bacnet4j.exception.RejectAPDUException;
+import com.serotonin.bacnet4j.service.confirmed.WritePropertyMultipleRequest;
+import com.serotonin.bacnet4j.service.confirmed.WritePropertyRequest;
+import com.serotonin.bacnet4j.type.Encodable;
+import com.serotonin.bacnet4j.type.constructed.PropertyValue;
+import com.serotonin.bacnet4j.type.constructed.SequenceOf;
+import com.serotonin.bacnet4j.type.constructed.ServicesSupported;
+import com.serotonin.bacnet4j.type.constructed.WriteAccessSpecification;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.UnsignedInteger;
+import com.serotonin.bacnet4j.util.sero.ByteQueue;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Skriver verdier til devicer via en kø per device. Skrivinger samles i et kort tidsvindu, gjentatte
+ * skrivinger til samme objekt/property/prioritet slås sammen, og resten pakkes i WritePropertyMultiple
+ * som passer i én APDU. Devicer uten støtte for WritePropertyMultiple får én WriteProperty per verdi.
+ * Svarer ikke devicet, feiler alle ventende skrivinger i samme flush.
+ * Hver skriving får en fremtid som fullføres når devicet har bekreftet den.
+ */
+public class BacnetWriter {
+    private static final Logger log = getLogger(BacnetWriter.class);
+
+    private static final long COALESCE_MILLIS = 100;
+    private static final int WRITER_THREADS = 4;
+    // Omtrentlig størrelse på en WritePropertyMultiple-header, per objekt og per property utenom selve verdien
+    private static final int REQUEST_OVERHEAD = 8;
+    private static final int OBJECT_OVERHEAD = 7;
+    private static final int PROPERTY_OVERHEAD = 10;
+
+    private final LocalDevice localDevice;
+    private final WriteMetrics metrics = new WriteMetrics();
+    private final Map<Integer, DeviceWriteQueue> queues = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(WRITER_THREADS, r -> {
+        Thread thread = new Thread(r, "bacnet-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BacnetWriter(LocalDevice localDevice) {
+        this.localDevice = localDevice;
+    }
+
+    /**
+     * Skriver til present value
+     *
+     * @param priority prioritet 1-16, eller 0 for å skrive uten prioritet
+     */
+    public CompletableFuture<Void> write(RemoteDevice remoteDevice, ObjectIdentifier objectId, Encodable value,
+                                         int priority) {
+        return write(remoteDevice, objectId, PropertyIdentifier.presentValue, value, priority);
+    }
+
+    /**
+     * Legger skrivingen i køen for devicet. En ventende skriving med samme objekt, property og prioritet
+     * erstattes, og fremtiden dens fullføres når den nye er skrevet.
+     *
+     * @param priority prioritet 1-16, eller 0 for å skrive uten prioritet
+     */
+    public CompletableFuture<Void> write(RemoteDevice remoteDevice, ObjectIdentifier objectId,
+                                         PropertyIdentifier propertyId, Encodable value, int priority) {
+        if (priority < 0 || priority > 16) {
+            throw new IllegalArgumentException("Priority must be between 1 and 16, or 0 for none: " + priority);
+        }
+        if (executor.isShutdown()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Writer is shut down"));
+        }
+
+        DeviceWriteQueue queue = queues.computeIfAbsent(remoteDevice.getInstanceNumber(),
+                id -> new DeviceWriteQueue(remoteDevice));
+        // Devicet kan være oppdaget på nytt med ny adresse eller maks APDU siden køen ble laget
+        queue.remoteDevice = remoteDevice;
+        WriteCommand command = new WriteCommand(new WriteKey(objectId, propertyId, priority), value);
+        if (queue.enqueue(command) != null) {
+            metrics.recordCoalesced();
+        }
+        if (queue.scheduleFlush()) {
+            scheduleFlush(queue);
+        }
+        return command.future;
+    }
+
+    public WriteMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stopper skrivingen. Ventende skrivinger feiler.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        IllegalStateException error = new IllegalStateException("Writer is shut down");
+        for (DeviceWriteQueue queue : queues.values()) {
+            for (WriteCommand command : queue.drain()) {
+                command.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * Planlegger en flush av køen. Er writeren stoppet i mellomtiden, feiler de ventende skrivingene.
+     */
+    private void scheduleFlush(DeviceWriteQueue queue) {
+        try {
+            executor.schedule(() -> flush(queue), COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            failPending(queue.drain(), new IllegalStateException("Writer is shut down"));
+        }
+    }
+
+    private void flush(DeviceWriteQueue queue) {
+        RemoteDevice remoteDevice = queue.remoteDevice;
+        List<WriteCommand> commands = queue.drain();
+        try {
+            for (List<WriteCommand> batch : batches(remoteDevice, commands)) {
+                // Sjekkes per batch, siden devicet kan ha avvist WritePropertyMultiple i en tidligere batch
+                if (supportsWriteMultiple(queue, remoteDevice)) {
+                    writeMultiple(queue, remoteDevice, batch);
+                } else {
+                    for (WriteCommand command : batch) {
+                        writeSingle(remoteDevice, command);
+                    }
+                }
+            }
+        } catch (BACnetTimeoutException e) {
+            // Svarer ikke devicet, feiler resten av skrivingene med en gang i stedet for å vente på timeout for hver
+            log.warn("Device {} did not respond, failing remaining writes: {}",
+                    remoteDevice.getInstanceNumber(), e.getMessage());
+            failPending(commands, e);
+        } catch (Exception e) {
+            log.warn("Unexpected error flushing writes to device {}", remoteDevice.getInstanceNumber(), e);
+            failPending(commands, e);
+        } finally {
+            // Én flush per device om gangen, så skrivinger til samme punkt kommer frem i rekkefølge
+            if (queue.flushCompleted()) {
+                scheduleFlush(queue);
+            }
+        }
+    }
+
+    /**
+     * Sender batchen som én WritePropertyMultiple. Ved Error, Reject eller Abort skrives verdiene enkeltvis,
+     * siden feilsvaret bare sier hvilken skriving som feilet først. Ved timeout feiler hele batchen.
+     *
+     * @throws BACnetTimeoutException når devicet ikke svarer, etter at batchen er feilet
+     */
+    private void writeMultiple(DeviceWriteQueue queue, RemoteDevice remoteDevice, List<WriteCommand> batch)
+            throws BACnetTimeoutException {
+        if (batch.size() == 1) {
+            writeSingle(remoteDevice, batch.get(0));
+            return;
+        }
+
+        Map<ObjectIdentifier, List<PropertyValue>> byObject = new LinkedHashMap<>();
+        for (WriteCommand command : batch) {
+            byObject.computeIfAbsent(command.key.objectIdentifier, id -> new ArrayList<>())
+                    .add(new PropertyValue(command.key.propertyIdentifier, null, command.value,
+                            priority(command.key.priority)));
+        }
+        List<WriteAccessSpecification> specifications = new ArrayList<>();
+        byObject.forEach((objectId, values) ->
+                specifications.add(new WriteAccessSpecification(objectId, new SequenceOf<>(values))));
+
+        long start = System.nanoTime();
+        try {
+            localDevice.send(remoteDevice, new WritePropertyMultipleRequest(new SequenceOf<>(specifications)))
+                    .get();
+            metrics.recordRequest(true, System.nanoTime() - start, true);
+            for (WriteCommand command : batch) {
+                complete(command, null);
+            }
+            return;
+        } catch (BACnetTimeoutException e) {
+            metrics.recordRequest(true, System.nanoTime() - start, false);
+            for (WriteCommand command : batch) {
+                complete(command, e);
+            }
+            throw e;
+        } catch (RejectAPDUException e) {
+            metrics.recordRequest(true, System.nanoTime() - start, false);
+            log.info("Device {} rejected WritePropertyMultiple, using WriteProperty from now on",
+                    remoteDevice.getInstanceNumber());
+            queue.writeMultipleRejected = true;
+        } catch (ErrorAPDUException | AbortAPDUException e) {
+            metrics.recordRequest(true, System.nanoTime() - start, false);
+            log.debug("WritePropertyMultiple to device {} failed, retrying {} writes one by one: {}",
+                    remoteDevice.getInstanceNumber(), batch.size(), e.getMessage());
+        } catch (BACnetException e) {
+            metrics.recordRequest(true, System.nanoTime() - start, false);
+            log.warn("WritePropertyMultiple with {} writes to device {} failed: {}",
+                    batch.size(), remoteDevice.getInstanceNumber(), e.getMessage());
+            for (WriteCommand command : batch) {
+                complete(command, e);
+            }
+            return;
+        }
+
+        for (WriteCommand command : batch) {
+            writeSingle(remoteDevice, command);
+        }
+    }
+
+    /**
+     * @throws BACnetTimeoutException når devicet ikke svarer, etter at skrivingen er feilet
+     */
+    private void writeSingle(RemoteDevice remoteDevice, WriteCommand command) throws BACnetTimeoutException {
+        long start = System.nanoTime();
+        try {
+            localDevice.send(remoteDevice, new WritePropertyRequest(command.key.objectIdentifier,
+                    command.key.propertyIdentifier, null, command.value, priority(command.key.priority))).get();
+            metrics.recordRequest(false, System.nanoTime() - start, true);
+            complete(command, null);
+        } catch (BACnetException e) {
+            metrics.recordRequest(false, System.nanoTime() - start, false);
+            log.warn("Write of {} to device {} failed: {}", command.key, remoteDevice.getInstanceNumber(),
+                    e.getMessage());
+            complete(command, e);
+            if (e instanceof BACnetTimeoutException timeout) {
+                throw timeout;
+            }
+        }
+    }
+
+    private void failPending(List<WriteCommand> commands, Throwable error) {
+        for (WriteCommand command : commands) {
+            if (!command.future.isDone()) {
+                complete(command, error);
+            }
+        }
+    }
+
+    private void complete(WriteCommand command, Throwable error) {
+        metrics.recordWrite(System.nanoTime() - command.enqueuedNanos, error == null);
+        if (error == null) {
+            command.future.complete(null);
+        } else {
+            command.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Deler skrivingene i grupper der hver WritePropertyMultiple passer i devicets maks APDU
+     */
+    private static List<List<WriteCommand>> batches(RemoteDevice remoteDevice, List<WriteCommand> commands) {
+        int maxSize = remoteDevice.getMaxAPDULengthAccepted();
+        List<List<WriteCommand>> batches = new ArrayList<>();
+        List<WriteCommand> batch = new ArrayList<>();
+        int size = REQUEST_OVERHEAD;
+        for (WriteCommand command : commands) {
+            int commandSize = OBJECT_OVERHEAD + PROPERTY_OVERHEAD + encodedSize(command.value);
+            if (!batch.isEmpty() && size + commandSize > maxSize) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                size = REQUEST_OVERHEAD;
+            }
+            batch.add(command);
+            size += commandSize;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static int encodedSize(Encodable value) {
+        ByteQueue queue = new ByteQueue();
+        value.write(queue);
+        return queue.size();
+    }
+
+    private static boolean supportsWriteMultiple(DeviceWriteQueue queue, RemoteDevice remoteDevice) {
+        if (queue.writeMultipleRejected) {
+            return false;
+        }
+        ServicesSupported services = remoteDevice.getServicesSupported();
+        return services != null && services.isWritePropertyMultiple();
+    }
+
+    private static UnsignedInteger priority(int priority) {
+        return priority == 0 ? null : new UnsignedInteger(priority);
+    }
+}
@@ -0,0 +1,71 @@
+package no.messom.realestate.bacnet.write;
+
+import com.serotonin.bacnet4j.RemoteDevice;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ventende skrivinger for ett device. En ny skriving til samme objekt/property/prioritet erstatter
+ * den ventende, og fremtiden til den erstattede fullføres sammen med den som vant.
+ */
+final class DeviceWriteQueue {
+    // Sist brukte RemoteDevice for devicet. Hver flush bruker den som gjaldt da den startet.
+    volatile RemoteDevice remoteDevice;
+    private final Map<WriteKey, WriteCommand> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    volatile boolean writeMultipleRejected;
+
+    DeviceWriteQueue(RemoteDevice remoteDevice) {
+        this.remoteDevice = remoteDevice;
+    }
+
+    /**
+     * @return kommandoen som ble erstattet, eller null
+     */
+    synchronized WriteCommand enqueue(WriteCommand command) {
+        WriteCommand replaced = pending.put(command.key, command);
+        if (replaced != null) {
+            command.future.whenComplete((result, error) -> {
+                if (error != null) {
+                    replaced.future.completeExceptionally(error);
+                } else {
+                    replaced.future.complete(result);
+                }
+            });
+        }
+        return replaced;
+    }
+
+    /**
+     * Markerer at en flush er planlagt. Returnerer false hvis det allerede er en planlagt eller pågående flush.
+     */
+    synchronized boolean scheduleFlush() {
+        if (flushScheduled) {
+            return false;
+        }
+        flushScheduled = true;
+        return true;
+    }
+
+    synchronized List<WriteCommand> drain() {
+        List<WriteCommand> commands = new ArrayList<>(pending.values());
+        pending.clear();
+        return commands;
+    }
+
+    /**
+     * Kalles når en flush er ferdig. Returnerer true hvis nye skrivinger har kommet i mellomtiden
+     * og en ny flush må planlegges.
+     */
+    synchronized boolean flushCompleted() {
+        flushScheduled = !pending.isEmpty();
+        return flushScheduled;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+}
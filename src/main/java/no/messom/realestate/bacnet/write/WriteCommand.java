@@ -0,0 +1,20 @@
+package no.messom.realestate.bacnet.write;
+
+import com.serotonin.bacnet4j.type.Encodable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * En ventende skriving med fremtiden som fullføres når devicet har bekreftet den
+ */
+final class WriteCommand {
+    final WriteKey key;
+    final Encodable value;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    final long enqueuedNanos = System.nanoTime();
+
+    WriteCommand(WriteKey key, Encodable value) {
+        this.key = key;
+        this.value = value;
+    }
+}
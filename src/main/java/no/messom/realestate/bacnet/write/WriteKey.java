@@ -0,0 +1,41 @@
+package no.messom.realestate.bacnet.write;
+
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+import java.util.Objects;
+
+/**
+ * Objekt, property og prioritet. Skrivinger med samme nøkkel slås sammen, og siste verdi vinner.
+ */
+final class WriteKey {
+    final ObjectIdentifier objectIdentifier;
+    final PropertyIdentifier propertyIdentifier;
+    final int priority;
+
+    WriteKey(ObjectIdentifier objectIdentifier, PropertyIdentifier propertyIdentifier, int priority) {
+        this.objectIdentifier = objectIdentifier;
+        this.propertyIdentifier = propertyIdentifier;
+        this.priority = priority;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WriteKey that = (WriteKey) o;
+        return priority == that.priority &&
+                Objects.equals(objectIdentifier, that.objectIdentifier) &&
+                Objects.equals(propertyIdentifier, that.propertyIdentifier);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(objectIdentifier, propertyIdentifier, priority);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s @%d", objectIdentifier, propertyIdentifier, priority);
+    }
+}
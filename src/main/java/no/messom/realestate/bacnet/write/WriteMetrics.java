@@ -0,0 +1,89 @@
+package no.messom.realestate.bacnet.write;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Tellere og latens for skrivinger. Latens per skriving måles fra den ble lagt i køen til devicet bekreftet den,
+ * og inkluderer dermed ventetiden for sammenslåing.
+ */
+public class WriteMetrics {
+    private static final Logger log = getLogger(WriteMetrics.class);
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder multipleRequests = new LongAdder();
+    private final LongAdder singleRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final LongAdder totalRequestNanos = new LongAdder();
+
+    void recordWrite(long latencyNanos, boolean success) {
+        if (success) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    void recordRequest(boolean multiple, long durationNanos, boolean success) {
+        if (multiple) {
+            multipleRequests.increment();
+        } else {
+            singleRequests.increment();
+        }
+        if (!success) {
+            failedRequests.increment();
+        }
+        totalRequestNanos.add(durationNanos);
+    }
+
+    public long getCompleted() { return completed.sum(); }
+    public long getFailed() { return failed.sum(); }
+    public long getCoalesced() { return coalesced.sum(); }
+    public long getMultipleRequests() { return multipleRequests.sum(); }
+    public long getSingleRequests() { return singleRequests.sum(); }
+
+    /**
+     * Forespørsler som fikk feilsvar eller timeout, både WritePropertyMultiple og WriteProperty
+     */
+    public long getFailedRequests() { return failedRequests.sum(); }
+
+    public double getAverageLatencyMillis() {
+        long writes = completed.sum() + failed.sum();
+        return writes == 0 ? 0 : totalLatencyNanos.sum() / (double) writes / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double getAverageRequestMillis() {
+        long requests = multipleRequests.sum() + singleRequests.sum();
+        return requests == 0 ? 0 : totalRequestNanos.sum() / (double) requests / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public void logStatistics() {
+        log.info("=== Write Statistics ===");
+        log.info("Completed: {}, failed: {}, coalesced: {}", getCompleted(), getFailed(), getCoalesced());
+        log.info("WritePropertyMultiple requests: {}, WriteProperty requests: {}, failed requests: {}",
+                getMultipleRequests(), getSingleRequests(), getFailedRequests());
+        log.info("Latency avg: {} ms, max: {} ms, request avg: {} ms",
+                String.format("%.1f", getAverageLatencyMillis()), String.format("%.1f", getMaxLatencyMillis()),
+                String.format("%.1f", getAverageRequestMillis()));
+        log.info("=== End Statistics ===");
+    }
+}
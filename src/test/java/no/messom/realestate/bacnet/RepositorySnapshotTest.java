@@ -0,0 +1,146 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositorySnapshotTest {
+    private static final int DEVICE = 2640;
+
+    private final BacnetObjectRepository repository = new BacnetObjectRepository();
+
+    @Test
+    void growsPast32And1024Slots() {
+        for (int count : new int[]{31, 32, 33, 1023, 1024, 1025, 1100}) {
+            addObjects(count);
+            RepositorySnapshot snapshot = repository.snapshot();
+            assertEquals(count, snapshot.size());
+
+            Set<Integer> instances = new HashSet<>();
+            for (BacnetObjectState state : snapshot) {
+                instances.add(state.getObjectIdentifier().getInstanceNumber());
+            }
+            assertEquals(count, instances.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, snapshot.find(DEVICE, oid(i)).orElseThrow().getObjectIdentifier().getInstanceNumber());
+            }
+        }
+    }
+
+    @Test
+    void changesSinceReturnsLatestStateAfterManyUpdates() {
+        addObjects(2000);
+        long before = repository.snapshot().getVersion();
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2000; i += 4) {
+                repository.updatePresentValue(DEVICE, oid(i), new Real(round));
+            }
+        }
+
+        RepositorySnapshot snapshot = repository.snapshot();
+        assertEquals(before + 5 * 500, snapshot.getVersion());
+        List<BacnetObjectState> changes = snapshot.changesSince(before);
+        assertEquals(500, changes.size());
+        for (BacnetObjectState state : changes) {
+            assertEquals(0, state.getObjectIdentifier().getInstanceNumber() % 4);
+            assertEquals(new Real(4), state.getPresentValue());
+            assertTrue(state.getVersion() > before);
+        }
+        assertTrue(snapshot.changesSince(snapshot.getVersion()).isEmpty());
+        assertEquals(2000, snapshot.changesSince(0).size());
+    }
+
+    @Test
+    void olderSnapshotKeepsItsState() {
+        addObjects(100);
+        repository.updatePresentValue(DEVICE, oid(50), new Real(1));
+        RepositorySnapshot older = repository.snapshot();
+
+        repository.updatePresentValue(DEVICE, oid(50), new Real(2));
+        addObjects(200);
+        RepositorySnapshot newer = repository.snapshot();
+
+        assertEquals(new Real(1), older.find(DEVICE, oid(50)).orElseThrow().getPresentValue());
+        assertEquals(new Real(2), newer.find(DEVICE, oid(50)).orElseThrow().getPresentValue());
+        assertEquals(100, older.size());
+        assertFalse(older.find(DEVICE, oid(150)).isPresent());
+        assertTrue(newer.find(DEVICE, oid(150)).isPresent());
+    }
+
+    @Test
+    void clearStartsEmptySnapshotWithClearedVersion() {
+        addObjects(50);
+        RepositorySnapshot beforeClear = repository.snapshot();
+
+        repository.clear();
+        RepositorySnapshot cleared = repository.snapshot();
+        assertEquals(0, cleared.size());
+        assertTrue(cleared.getClearedVersion() > beforeClear.getVersion());
+        assertEquals(cleared.getVersion(), cleared.getClearedVersion());
+        assertFalse(cleared.find(DEVICE, oid(1)).isPresent());
+        assertTrue(beforeClear.find(DEVICE, oid(1)).isPresent());
+
+        addObjects(10);
+        RepositorySnapshot refilled = repository.snapshot();
+        assertEquals(cleared.getClearedVersion(), refilled.getClearedVersion());
+        assertEquals(10, refilled.changesSince(refilled.getClearedVersion()).size());
+    }
+
+    @Test
+    void sameObjectOnTwoDevicesIsKeptApart() {
+        repository.addObject(new BacnetObject(1, oid(7)));
+        repository.addObject(new BacnetObject(2, oid(7)));
+        repository.updatePresentValue(1, oid(7), new Real(10));
+        repository.updatePresentValue(2, oid(7), new Real(20));
+
+        RepositorySnapshot snapshot = repository.snapshot();
+        assertEquals(2, repository.size());
+        assertEquals(new Real(10), snapshot.find(1, oid(7)).orElseThrow().getPresentValue());
+        assertEquals(new Real(20), snapshot.find(2, oid(7)).orElseThrow().getPresentValue());
+    }
+
+    @Test
+    void removeDeviceEmptiesItsSlotsAndMarksClearedVersion() {
+        repository.addObject(new BacnetObject(1, oid(7)));
+        repository.addObject(new BacnetObject(2, oid(7)));
+        repository.addObject(new BacnetObject(2, oid(8)));
+        RepositorySnapshot before = repository.snapshot();
+
+        assertEquals(2, repository.removeDevice(2));
+        RepositorySnapshot after = repository.snapshot();
+        assertEquals(after.getVersion(), after.getClearedVersion());
+        assertTrue(after.find(1, oid(7)).isPresent());
+        assertFalse(after.find(2, oid(7)).isPresent());
+        assertTrue(before.find(2, oid(7)).isPresent());
+        int count = 0;
+        for (BacnetObjectState ignored : after) {
+            count++;
+        }
+        assertEquals(1, count);
+
+        // Devicet kommer tilbake og får samme plass
+        repository.addObject(new BacnetObject(2, oid(7)));
+        assertEquals(3, repository.snapshot().size());
+        assertTrue(repository.snapshot().find(2, oid(7)).isPresent());
+    }
+
+    private void addObjects(int count) {
+        for (int i = repository.size(); i < count; i++) {
+            repository.addObject(new BacnetObject(DEVICE, oid(i)));
+        }
+    }
+
+    private static ObjectIdentifier oid(int instance) {
+        return new ObjectIdentifier(ObjectType.analogValue, instance);
+    }
+}
@@ -0,0 +1,17 @@
+package no.messom.realestate.bacnet;
+
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+
+/**
+ * Lager objekter med metadata for tester i andre pakker, siden setterne bare brukes av discovery
+ */
+public final class TestObjects {
+    private TestObjects() {
+    }
+
+    public static BacnetObject named(int deviceInstanceNumber, ObjectIdentifier objectIdentifier, String objectName) {
+        BacnetObject object = new BacnetObject(deviceInstanceNumber, objectIdentifier);
+        object.setObjectName(objectName);
+        return object;
+    }
+}
@@ -0,0 +1,67 @@
+package no.messom.realestate.bacnet.aggregate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollingWindowTest {
+
+    @Test
+    void emptyWindowHasNoValues() {
+        Aggregate aggregate = new RollingWindow(1000, 10).get(5000);
+        assertEquals(0, aggregate.getCount());
+        assertTrue(Double.isNaN(aggregate.getMin()));
+        assertTrue(Double.isNaN(aggregate.getMax()));
+        assertTrue(Double.isNaN(aggregate.getAverage()));
+    }
+
+    @Test
+    void combinesBucketsInsideWindow() {
+        RollingWindow window = new RollingWindow(1000, 10);
+        window.add(5, 10_000);
+        window.add(1, 10_050);
+        window.add(9, 10_420);
+        window.add(3, 10_999);
+
+        Aggregate aggregate = window.get(10_999);
+        assertEquals(4, aggregate.getCount());
+        assertEquals(1, aggregate.getMin());
+        assertEquals(9, aggregate.getMax());
+        assertEquals(18, aggregate.getSum());
+        assertEquals(4.5, aggregate.getAverage());
+    }
+
+    @Test
+    void valuesAgeOutOfWindow() {
+        RollingWindow window = new RollingWindow(1000, 10);
+        window.add(100, 10_000);
+        window.add(1, 10_500);
+
+        assertEquals(2, window.get(10_900).getCount());
+        Aggregate later = window.get(11_050);
+        assertEquals(1, later.getCount());
+        assertEquals(1, later.getMax());
+        assertEquals(0, window.get(11_600).getCount());
+    }
+
+    @Test
+    void reusedBucketStartsFromScratch() {
+        RollingWindow window = new RollingWindow(1000, 10);
+        window.add(100, 10_000);
+        // Samme bøtte-indeks ett vindu senere
+        window.add(2, 11_000);
+
+        Aggregate aggregate = window.get(11_000);
+        assertEquals(1, aggregate.getCount());
+        assertEquals(2, aggregate.getMin());
+        assertEquals(2, aggregate.getMax());
+    }
+
+    @Test
+    void rejectsWindowShorterThanBuckets() {
+        assertThrows(IllegalArgumentException.class, () -> new RollingWindow(5, 10));
+        assertThrows(IllegalArgumentException.class, () -> new RollingWindow(1000, 0));
+    }
+}
@@ -0,0 +1,170 @@
+package no.messom.realestate.bacnet.alert;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import no.messom.realestate.bacnet.BacnetObject;
+import no.messom.realestate.bacnet.BacnetObjectRepository;
+import no.messom.realestate.bacnet.ObjectSelector;
+import no.messom.realestate.bacnet.TestObjects;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlertEngineTest {
+    private static final int DEVICE = 2640;
+    private static final ObjectIdentifier TEMPERATURE = new ObjectIdentifier(ObjectType.analogInput, 1);
+    private static final long STUCK_MILLIS = 60_000;
+    private static final long START = 1_000_000;
+
+    private final BacnetObjectRepository repository = new BacnetObjectRepository();
+    private final List<Alert> alerts = new ArrayList<>();
+
+    @Test
+    void highIsRaisedAndClearedOnTransitionsOnly() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("high", AlertKind.HIGH, 30));
+
+        update(engine, object, 25, START);
+        update(engine, object, 31, START + 1000);
+        update(engine, object, 32, START + 2000);
+        update(engine, object, 29, START + 3000);
+
+        assertAlerts("high", true, "high", false);
+    }
+
+    @Test
+    void lowIsRaisedAndClearedOnTransitionsOnly() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("low", AlertKind.LOW, 10));
+
+        update(engine, object, 12, START);
+        update(engine, object, 9, START + 1000);
+        update(engine, object, 8, START + 2000);
+        update(engine, object, 11, START + 3000);
+
+        assertAlerts("low", true, "low", false);
+    }
+
+    @Test
+    void rateComparesWithPreviousSample() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("rate", AlertKind.RATE, 1));
+
+        update(engine, object, 20, START);
+        // 0,5 per sekund
+        update(engine, object, 25, START + 10_000);
+        // 5 per sekund
+        update(engine, object, 30, START + 11_000);
+        update(engine, object, 30, START + 21_000);
+
+        assertAlerts("rate", true, "rate", false);
+    }
+
+    @Test
+    void stuckIsRaisedOnceAndClearedWhenValueChanges() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("stuck", AlertKind.STUCK, 0));
+
+        update(engine, object, 20, START);
+        update(engine, object, 20, START + 30_000);
+        engine.checkStuck(START + STUCK_MILLIS);
+        assertTrue(alerts.isEmpty());
+
+        engine.checkStuck(START + STUCK_MILLIS + 1);
+        engine.checkStuck(START + STUCK_MILLIS + 10_000);
+        update(engine, object, 21, START + STUCK_MILLIS + 20_000);
+
+        assertAlerts("stuck", true, "stuck", false);
+    }
+
+    @Test
+    void recompileWithUnchangedRulesKeepsAlertsAndStuckTimer() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("high", AlertKind.HIGH, 30), rule("stuck", AlertKind.STUCK, 0));
+        update(engine, object, 35, START);
+        AlertPoint point = object.getAlertPoint();
+
+        engine.compile();
+        update(engine, object, 35, START + 30_000);
+        engine.checkStuck(START + STUCK_MILLIS - 1);
+
+        assertSame(point, object.getAlertPoint());
+        assertTrue(point.isActive("high"));
+        assertAlerts("high", true);
+
+        // Verdien har stått stille siden START, ikke siden kompileringen
+        engine.checkStuck(START + STUCK_MILLIS + 1);
+        assertAlerts("high", true, "stuck", true);
+    }
+
+    @Test
+    void recompileWithChangedRulesClearsOnlyRemovedRules() {
+        BacnetObject object = add("Supply temp");
+        AlertEngine engine = engine(rule("high", AlertKind.HIGH, 30), rule("stuck", AlertKind.STUCK, 0),
+                new AlertRule("supply-high", AlertKind.HIGH, 30, 0,
+                        new ObjectSelector(-1, null, -1, Pattern.compile("Supply.*"))));
+        update(engine, object, 35, START);
+        assertAlerts("high", true, "supply-high", true);
+
+        // Objektet er oppdaget på nytt med et annet navn, og matcher ikke lenger supply-high
+        BacnetObject renamed = add("Return temp");
+        engine.compile();
+
+        AlertPoint point = renamed.getAlertPoint();
+        assertEquals(2, point.getRuleCount());
+        assertTrue(point.isActive("high"));
+        assertAlerts("high", true, "supply-high", true, "supply-high", false);
+
+        update(engine, renamed, 35, START + 30_000);
+        engine.checkStuck(START + STUCK_MILLIS - 1);
+        assertEquals(3, alerts.size());
+
+        engine.checkStuck(START + STUCK_MILLIS + 1);
+        update(engine, renamed, 20, START + STUCK_MILLIS + 10_000);
+        assertAlerts("high", true, "supply-high", true, "supply-high", false,
+                "stuck", true, "high", false, "stuck", false);
+        assertFalse(point.isActive("high"));
+    }
+
+    private BacnetObject add(String name) {
+        BacnetObject object = TestObjects.named(DEVICE, TEMPERATURE, name);
+        repository.addObject(object);
+        return object;
+    }
+
+    private AlertEngine engine(AlertRule... rules) {
+        AlertEngine engine = new AlertEngine(repository, List.of(rules), alerts::add);
+        engine.compile();
+        return engine;
+    }
+
+    private static AlertRule rule(String id, AlertKind kind, double limit) {
+        return new AlertRule(id, kind, limit, kind == AlertKind.STUCK ? STUCK_MILLIS : 0, ObjectSelector.ALL);
+    }
+
+    private static void update(AlertEngine engine, BacnetObject object, double value, long timestampMillis) {
+        engine.presentValueUpdated(object, value, timestampMillis);
+    }
+
+    /**
+     * Forventede alarmer som par av regel-id og om alarmen er utløst, i rekkefølge
+     */
+    private void assertAlerts(Object... expected) {
+        List<String> actual = new ArrayList<>();
+        for (Alert alert : alerts) {
+            actual.add(alert.getRuleId() + (alert.isRaised() ? " raised" : " cleared"));
+        }
+        List<String> wanted = new ArrayList<>();
+        for (int i = 0; i < expected.length; i += 2) {
+            wanted.add(expected[i] + ((Boolean) expected[i + 1] ? " raised" : " cleared"));
+        }
+        assertEquals(wanted, actual);
+    }
+}
@@ -0,0 +1,62 @@
+package no.messom.realestate.bacnet.shard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+    private static final int VIRTUAL_NODES = 128;
+    private static final int DEVICES = 3000;
+
+    @Test
+    void emptyRingHasNoOwner() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of(), VIRTUAL_NODES);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.owner(2640));
+    }
+
+    @Test
+    void ownershipDoesNotDependOnMemberOrder() {
+        ConsistentHashRing first = new ConsistentHashRing(List.of("a", "b", "c"), VIRTUAL_NODES);
+        ConsistentHashRing second = new ConsistentHashRing(List.of("c", "a", "b"), VIRTUAL_NODES);
+        for (int device = 0; device < DEVICES; device++) {
+            assertEquals(first.owner(device), second.owner(device));
+        }
+    }
+
+    @Test
+    void devicesAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c", "d"), VIRTUAL_NODES);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int device = 0; device < DEVICES; device++) {
+            counts.merge(ring.owner(device), 1, Integer::sum);
+        }
+        assertEquals(Set.of("a", "b", "c", "d"), counts.keySet());
+        for (int count : counts.values()) {
+            assertTrue(count > DEVICES / 4 * 0.7 && count < DEVICES / 4 * 1.3, "uneven spread: " + counts);
+        }
+    }
+
+    @Test
+    void onlyDevicesOfRemovedMemberMove() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("a", "b", "c"), VIRTUAL_NODES);
+        ConsistentHashRing after = new ConsistentHashRing(List.of("a", "c"), VIRTUAL_NODES);
+        int moved = 0;
+        for (int device = 0; device < DEVICES; device++) {
+            String owner = before.owner(device);
+            if ("b".equals(owner)) {
+                moved++;
+            } else {
+                assertEquals(owner, after.owner(device), "device " + device + " moved");
+            }
+        }
+        assertTrue(moved > 0);
+    }
+}
@@ -0,0 +1,120 @@
+package no.messom.realestate.bacnet.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Kjører flere {@link ShardCoordinator} i hver sin JVM mot samme {@link LeaseDirectory}, slik de kjører
+ * på samme vert i drift, og sjekker at hvert device eies av nøyaktig ett medlem før og etter at et medlem dør.
+ */
+class ShardCoordinatorProcessTest {
+    private static final long LEASE_MILLIS = 900;
+    private static final long TIMEOUT_MILLIS = 20000;
+    private static final List<Integer> DEVICES = IntStream.rangeClosed(1001, 1030).boxed().toList();
+
+    @TempDir
+    Path dir;
+
+    private final Map<String, Process> members = new LinkedHashMap<>();
+
+    @AfterEach
+    void stopMembers() {
+        members.values().forEach(Process::destroyForcibly);
+    }
+
+    @Test
+    void everyDeviceHasExactlyOneOwnerBeforeAndAfterMemberDies() throws Exception {
+        for (String member : List.of("node-a", "node-b", "node-c")) {
+            members.put(member, start(member));
+        }
+
+        Map<Integer, String> owners = awaitSingleOwners(Set.of("node-a", "node-b", "node-c"));
+
+        Process killed = members.remove("node-b");
+        killed.destroyForcibly().waitFor();
+
+        Map<Integer, String> after = awaitSingleOwners(Set.of("node-a", "node-c"));
+        for (Integer device : DEVICES) {
+            if (!"node-b".equals(owners.get(device))) {
+                assertEquals(owners.get(device), after.get(device), "device " + device + " should not move");
+            }
+        }
+    }
+
+    private Process start(String member) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String devices = DEVICES.stream().map(String::valueOf).collect(Collectors.joining(","));
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShardMemberProcess.class.getName(), dir.resolve("leases").toString(), member, devices,
+                dir.resolve(member + ".owned").toString(), Long.toString(LEASE_MILLIS))
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve(member + ".log").toFile())
+                .start();
+    }
+
+    /**
+     * Venter til medlemmene sammen eier alle devicene, uten overlapp, og hvert medlem eier minst ett device.
+     * Det siste skiller en ferdig fordeling fra tiden før de andre JVM-ene har skrevet leasen sin,
+     * da det første medlemmet eier alt. Returnerer eier per device.
+     */
+    private Map<Integer, String> awaitSingleOwners(Set<String> live) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String last = "";
+        while (System.currentTimeMillis() < deadline) {
+            for (Map.Entry<String, Process> member : members.entrySet()) {
+                if (!member.getValue().isAlive()) {
+                    fail(member.getKey() + " exited: " + Files.readString(dir.resolve(member.getKey() + ".log")));
+                }
+            }
+
+            Map<Integer, String> owners = new HashMap<>();
+            List<Integer> duplicates = new ArrayList<>();
+            for (String member : live) {
+                for (Integer device : owned(member)) {
+                    if (owners.put(device, member) != null) {
+                        duplicates.add(device);
+                    }
+                }
+            }
+            if (duplicates.isEmpty() && owners.keySet().equals(new HashSet<>(DEVICES))
+                    && new HashSet<>(owners.values()).equals(live)) {
+                return owners;
+            }
+            last = "owners=" + owners + ", duplicates=" + duplicates;
+            Thread.sleep(100);
+        }
+        return fail("devices not settled on " + live + " within " + TIMEOUT_MILLIS + " ms: " + last);
+    }
+
+    private Set<Integer> owned(String member) throws IOException {
+        Path file = dir.resolve(member + ".owned");
+        if (!Files.exists(file)) {
+            return Set.of();
+        }
+        String content = Files.readString(file, StandardCharsets.UTF_8).trim();
+        if (content.isEmpty()) {
+            return Set.of();
+        }
+        return Arrays.stream(content.split(",")).map(Integer::valueOf).collect(Collectors.toSet());
+    }
+}
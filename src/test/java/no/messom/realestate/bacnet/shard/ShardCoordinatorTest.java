@@ -0,0 +1,84 @@
+package no.messom.realestate.bacnet.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class ShardCoordinatorTest {
+    private static final long LEASE_MILLIS = 300;
+    private static final List<Integer> DEVICES = List.of(1, 2, 3, 4, 5);
+
+    @TempDir
+    Path dir;
+
+    private ShardCoordinator coordinator;
+
+    @AfterEach
+    void stop() {
+        if (coordinator != null) {
+            coordinator.stop();
+        }
+    }
+
+    @Test
+    void releasesAllDevicesWhenLeaseCannotBeRenewed() throws Exception {
+        FailingLeases leases = new FailingLeases(dir, LEASE_MILLIS);
+        Set<Integer> acquired = new ConcurrentSkipListSet<>();
+        coordinator = new ShardCoordinator(leases, "node-a", DEVICES, new ShardListener() {
+            @Override
+            public void deviceAcquired(int deviceInstanceNumber) {
+                acquired.add(deviceInstanceNumber);
+            }
+
+            @Override
+            public void deviceReleased(int deviceInstanceNumber) {
+                acquired.remove(deviceInstanceNumber);
+            }
+        }, LEASE_MILLIS, 1);
+        coordinator.start();
+        await(() -> acquired.size() == DEVICES.size(), "devices acquired");
+
+        leases.failing = true;
+        await(acquired::isEmpty, "devices released after failed renewal");
+        assertTrue(coordinator.getAcquiredDevices().isEmpty());
+
+        leases.failing = false;
+        await(() -> acquired.size() == DEVICES.size(), "devices acquired again after renewal");
+    }
+
+    private static void await(BooleanSupplier condition, String description) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for " + description);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static final class FailingLeases extends LeaseDirectory {
+        volatile boolean failing;
+
+        FailingLeases(Path directory, long leaseMillis) throws IOException {
+            super(directory, leaseMillis);
+        }
+
+        @Override
+        public void renew(String memberId, long nowMillis) throws IOException {
+            if (failing) {
+                throw new IOException("lease directory unavailable");
+            }
+            super.renew(memberId, nowMillis);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package no.messom.realestate.bacnet.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+/**
+ * Ett shard-medlem i egen JVM for {@link ShardCoordinatorProcessTest}. Skriver devicene medlemmet
+ * har overtatt til en fil ved hver endring.
+ *
+ * <pre>ShardMemberProcess &lt;leasekatalog&gt; &lt;medlem&gt; &lt;devicer&gt; &lt;utfil&gt; &lt;lease ms&gt;</pre>
+ */
+public class ShardMemberProcess {
+
+    public static void main(String[] args) throws Exception {
+        Path leaseDir = Paths.get(args[0]);
+        String memberId = args[1];
+        List<Integer> devices = Arrays.stream(args[2].split(",")).map(Integer::valueOf).toList();
+        Path output = Paths.get(args[3]);
+        long leaseMillis = Long.parseLong(args[4]);
+
+        Set<Integer> acquired = new ConcurrentSkipListSet<>();
+        write(output, acquired);
+        ShardCoordinator coordinator = new ShardCoordinator(new LeaseDirectory(leaseDir, leaseMillis), memberId,
+                devices, new ShardListener() {
+                    @Override
+                    public void deviceAcquired(int deviceInstanceNumber) throws Exception {
+                        acquired.add(deviceInstanceNumber);
+                        write(output, acquired);
+                    }
+
+                    @Override
+                    public void deviceReleased(int deviceInstanceNumber) throws Exception {
+                        acquired.remove(deviceInstanceNumber);
+                        write(output, acquired);
+                    }
+                }, leaseMillis, 10);
+        coordinator.start();
+        new CountDownLatch(1).await();
+    }
+
+    private static synchronized void write(Path output, Set<Integer> acquired) throws Exception {
+        Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+        Files.writeString(temp, acquired.stream().map(String::valueOf).collect(Collectors.joining(",")),
+                StandardCharsets.UTF_8);
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
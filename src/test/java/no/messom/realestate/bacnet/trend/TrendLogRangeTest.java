@@ -0,0 +1,73 @@
+package no.messom.realestate.bacnet.trend;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrendLogRangeTest {
+    private static final long SINCE = 1_700_000_000_000L;
+
+    @Test
+    void emptyBufferHasNoRange() {
+        assertNull(TrendLogRange.of(0, 0));
+        // Bufferet er tømt, men telleren står
+        assertNull(TrendLogRange.of(0, 500));
+    }
+
+    @Test
+    void bufferThatHasNotWrappedStartsAtOne() {
+        TrendLogRange range = TrendLogRange.of(120, 120);
+        assertEquals(1, range.oldest);
+        assertEquals(120, range.newest);
+
+        assertEquals(0, range.startCursor(0, 0));
+        assertEquals(60, range.startCursor(60, 0));
+        assertEquals(120, range.startCursor(120, 0));
+        assertTrue(range.isRead(120));
+    }
+
+    @Test
+    void wrappedBufferStartsAtOldestRecord() {
+        // Bufferet holder 1000 records, og 5000 er skrevet totalt
+        TrendLogRange range = TrendLogRange.of(1000, 5000);
+        assertEquals(4001, range.oldest);
+        assertEquals(5000, range.newest);
+
+        assertEquals(4000, range.startCursor(0, 0));
+        // Recordene etter pekeren er overskrevet
+        assertTrue(range.isOverwritten(3500));
+        assertEquals(4000, range.startCursor(3500, 0));
+        // Pekeren står rett før eldste record
+        assertFalse(range.isOverwritten(4000));
+        assertEquals(4000, range.startCursor(4000, 0));
+        assertEquals(4500, range.startCursor(4500, 0));
+    }
+
+    @Test
+    void cursorBeyondNewestIsTreatedAsRestart() {
+        TrendLogRange range = TrendLogRange.of(1000, 300);
+        assertTrue(range.isRestarted(5000));
+        assertFalse(range.isRestarted(300));
+        assertEquals(0, range.startCursor(5000, 0));
+
+        TrendLogRange wrapped = TrendLogRange.of(100, 300);
+        assertEquals(200, wrapped.startCursor(5000, 0));
+    }
+
+    @Test
+    void firstReadByTimeIsNotMoved() {
+        TrendLogRange range = TrendLogRange.of(1000, 5000);
+        assertTrue(TrendLogRange.readsByTime(0, SINCE));
+        assertEquals(0, range.startCursor(0, SINCE));
+        // Etter omstart leses bufferet by time igjen
+        assertEquals(0, range.startCursor(9000, SINCE));
+
+        // Med lagret peker brukes sekvensnummer, og tidspunktet har ingen betydning
+        assertFalse(TrendLogRange.readsByTime(4500, SINCE));
+        assertEquals(4000, range.startCursor(3500, SINCE));
+        assertFalse(TrendLogRange.readsByTime(0, 0));
+    }
+}
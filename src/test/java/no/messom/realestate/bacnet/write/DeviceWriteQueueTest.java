@@ -0,0 +1,115 @@
+package no.messom.realestate.bacnet.write;
+
+import com.serotonin.bacnet4j.type.enumerated.ObjectType;
+import com.serotonin.bacnet4j.type.enumerated.PropertyIdentifier;
+import com.serotonin.bacnet4j.type.primitive.ObjectIdentifier;
+import com.serotonin.bacnet4j.type.primitive.Real;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeviceWriteQueueTest {
+    private static final ObjectIdentifier SETPOINT = new ObjectIdentifier(ObjectType.analogValue, 1);
+    private static final ObjectIdentifier LIMIT = new ObjectIdentifier(ObjectType.analogValue, 2);
+
+    private final DeviceWriteQueue queue = new DeviceWriteQueue(null);
+
+    @Test
+    void sameKeyIsCoalescedAndLastValueWins() {
+        WriteCommand first = command(SETPOINT, 8, 20);
+        WriteCommand second = command(SETPOINT, 8, 21);
+
+        assertNull(queue.enqueue(first));
+        assertSame(first, queue.enqueue(second));
+
+        List<WriteCommand> drained = queue.drain();
+        assertEquals(1, drained.size());
+        assertSame(second, drained.get(0));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void differentPriorityOrObjectIsNotCoalesced() {
+        queue.enqueue(command(SETPOINT, 8, 20));
+        queue.enqueue(command(SETPOINT, 16, 20));
+        queue.enqueue(command(LIMIT, 8, 20));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    void replacedFutureCompletesWithWinner() {
+        WriteCommand first = command(SETPOINT, 8, 20);
+        WriteCommand second = command(SETPOINT, 8, 21);
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        assertFalse(first.future.isDone());
+        second.future.complete(null);
+        assertTrue(first.future.isDone());
+        assertFalse(first.future.isCompletedExceptionally());
+    }
+
+    @Test
+    void replacedFutureFailsWithWinner() {
+        WriteCommand first = command(SETPOINT, 8, 20);
+        WriteCommand second = command(SETPOINT, 8, 21);
+        queue.enqueue(first);
+        queue.enqueue(second);
+
+        second.future.completeExceptionally(new IllegalStateException("failed"));
+        assertTrue(first.future.isCompletedExceptionally());
+    }
+
+    @Test
+    void coalescingChainsAcrossSeveralReplacements() {
+        WriteCommand first = command(SETPOINT, 8, 20);
+        WriteCommand second = command(SETPOINT, 8, 21);
+        WriteCommand third = command(SETPOINT, 8, 22);
+        queue.enqueue(first);
+        queue.enqueue(second);
+        queue.enqueue(third);
+
+        third.future.complete(null);
+        assertTrue(first.future.isDone());
+        assertTrue(second.future.isDone());
+    }
+
+    @Test
+    void drainKeepsInsertionOrder() {
+        WriteCommand setpoint = command(SETPOINT, 8, 20);
+        WriteCommand limit = command(LIMIT, 8, 30);
+        queue.enqueue(setpoint);
+        queue.enqueue(limit);
+        queue.enqueue(command(SETPOINT, 8, 21));
+
+        List<WriteCommand> drained = queue.drain();
+        assertEquals(SETPOINT, drained.get(0).key.objectIdentifier);
+        assertSame(limit, drained.get(1));
+    }
+
+    @Test
+    void onlyOneFlushIsScheduledAtATime() {
+        assertTrue(queue.scheduleFlush());
+        assertFalse(queue.scheduleFlush());
+
+        queue.enqueue(command(SETPOINT, 8, 20));
+        queue.drain();
+        assertFalse(queue.flushCompleted());
+        assertTrue(queue.scheduleFlush());
+
+        // En skriving som kommer under en flush gir en ny flush når den er ferdig
+        queue.enqueue(command(LIMIT, 8, 30));
+        assertTrue(queue.flushCompleted());
+        assertFalse(queue.scheduleFlush());
+    }
+
+    private static WriteCommand command(ObjectIdentifier objectId, int priority, float value) {
+        return new WriteCommand(new WriteKey(objectId, PropertyIdentifier.presentValue, priority), new Real(value));
+    }
+}